@@ -0,0 +1,223 @@
+import benchmarks.Workload;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fixtures for the benchmarks, built from the images in Examples directory. Training cases are sampled from the
+ * training images with a fixed seed, the first test image is the one being classified.
+ */
+public class HotPathWorkload implements Workload {
+
+    private static final int SIZE = 10;
+    private static final short NUMBER_OF_NEIGHBOURS = 11;
+    private static final VariantModel VARIANT_MODEL = VariantModel.HU_MOMENTS;
+    private static final int NUMBER_OF_TRAINING_IMAGES = 3;
+
+    private final ImageLoader imageLoader = new ImageLoader(ImageUtils::equalizeOnlyGreen);
+    private Mat rawImage;
+    private Mat image;
+    private Mat manual;
+    private Mat mask;
+    private AbstractClassifier classifier;
+    private NormalizedTrainingSet trainingSet;
+    private NeighbourIndex bruteForceIndex;
+    private NeighbourIndex kdTree;
+    private final NeighbourHeap neighbours = new NeighbourHeap(NUMBER_OF_NEIGHBOURS);
+    private double[][] queries;
+
+    @Override
+    public void setUp(String examplesDir, int trainingSetSize) {
+        nu.pattern.OpenCV.loadShared();
+        final File trainingDir = Paths.get(examplesDir, "training").toFile();
+        final List<File> trainingImages = new ArrayList<>();
+        for (File trainingImage : listSorted(new File(trainingDir, "images"))) {
+            if (trainingImages.size() < NUMBER_OF_TRAINING_IMAGES
+                    && correspondingFile(trainingDir, "masks", trainingImage) != null
+                    && correspondingFile(trainingDir, "manuals", trainingImage) != null) {
+                trainingImages.add(trainingImage);
+            }
+        }
+        final Random random = new Random(42);
+        final List<TrainingVector> vectors = new ArrayList<>(trainingSetSize);
+        final int imagesUsed = trainingImages.size();
+        for (int i = 0; i < imagesUsed; i++) {
+            final int howMany = trainingSetSize / imagesUsed + (i < trainingSetSize % imagesUsed ? 1 : 0);
+            final File trainingImage = trainingImages.get(i);
+            final Mat image = imageLoader.loadImage(trainingImage.getAbsolutePath());
+            final Mat mask = loadCorrespondingImage(trainingDir, "masks", trainingImage);
+            final Mat manual = loadCorrespondingImage(trainingDir, "manuals", trainingImage);
+            sample(image, mask, manual, howMany, random, vectors);
+            image.release();
+            mask.release();
+            manual.release();
+        }
+        trainingSet = new NormalizedTrainingSet(vectors);
+        classifier = new KNNClassifier(trainingSet, VARIANT_MODEL, SIZE, NUMBER_OF_NEIGHBOURS);
+        bruteForceIndex = new BruteForceIndex(trainingSet);
+        kdTree = new KDTree(trainingSet);
+
+        final File testDir = Paths.get(examplesDir, "test").toFile();
+        final File testImage = listSorted(new File(testDir, "images"))[0];
+        rawImage = Imgcodecs.imread(testImage.getAbsolutePath());
+        image = imageLoader.loadImage(testImage.getAbsolutePath());
+        manual = loadCorrespondingImage(testDir, "manuals", testImage);
+        mask = loadCorrespondingImage(testDir, "masks", testImage);
+    }
+
+    @Override
+    public int getWidth() {
+        return image.width();
+    }
+
+    @Override
+    public int getHeight() {
+        return image.height();
+    }
+
+    @Override
+    public Object getSurroundingPixels(int x, int y) {
+        final Mat surrounding = cutSurrounding(x, y);
+        MatPool.release(surrounding);
+        return surrounding;
+    }
+
+    @Override
+    public List<Double> getHuMomentsVector(int x, int y) {
+        final Mat surrounding = cutSurrounding(x, y);
+        final List<Double> vector = VARIANT_MODEL.getVector(surrounding);
+        MatPool.release(surrounding);
+        return vector;
+    }
+
+    @Override
+    public boolean isVessel(int x, int y) {
+        return classifier.isVessel(image, x, y);
+    }
+
+    /**
+     * Compares the manual segmentation with the field of view mask, which has the same size as a result mask.
+     */
+    @Override
+    public Object computeConfusionMatrix() {
+        return StatisticUtils.computeConfusionMatrix(manual, mask);
+    }
+
+    @Override
+    public Object equalizeOnlyGreen() {
+        final Mat equalized = ImageUtils.equalizeOnlyGreen(rawImage);
+        equalized.release();
+        return equalized;
+    }
+
+    @Override
+    public void prepareQueries(int[] xs, int[] ys) {
+        queries = new double[xs.length][];
+        for (int i = 0; i < xs.length; i++) {
+            final List<Double> vector = getHuMomentsVector(xs[i], ys[i]);
+            queries[i] = new double[vector.size()];
+            for (int attr = 0; attr < vector.size(); attr++) {
+                queries[i][attr] = vector.get(attr);
+            }
+            StatisticUtils.normalize(queries[i], 0, trainingSet.getMeans(), trainingSet.getStandardDeviations());
+        }
+    }
+
+    @Override
+    public Object nearestNeighboursPowSqrt(int query) {
+        final double[] vector = queries[query];
+        final double[] data = trainingSet.getData();
+        final int dimension = trainingSet.getDimension();
+        neighbours.clear();
+        for (int i = 0; i < trainingSet.size(); i++) {
+            double sumBeforeRoot = 0;
+            for (int attr = 0; attr < dimension; ++attr) {
+                sumBeforeRoot += Math.pow(vector[attr] - data[i * dimension + attr], 2);
+            }
+            neighbours.offer(i, Math.sqrt(sumBeforeRoot));
+        }
+        return neighbours;
+    }
+
+    @Override
+    public Object nearestNeighboursKernel(int query) {
+        bruteForceIndex.nearestNeighbours(queries[query], neighbours);
+        return neighbours;
+    }
+
+    @Override
+    public Object nearestNeighboursKDTree(int query) {
+        kdTree.nearestNeighbours(queries[query], neighbours);
+        return neighbours;
+    }
+
+    /**
+     * Draws given number of pixels inside the field of view, half of them vessels, and adds their vectors.
+     */
+    private static void sample(Mat image, Mat mask, Mat manual, int howMany, Random random,
+                               List<TrainingVector> vectors) {
+        final int width = image.width();
+        final int height = image.height();
+        final byte[] maskData = new byte[width * height * mask.channels()];
+        mask.get(0, 0, maskData);
+        final byte[] manualData = new byte[width * height * manual.channels()];
+        manual.get(0, 0, manualData);
+        int positives = (howMany + 1) / 2;
+        int negatives = howMany / 2;
+        while (positives > 0 || negatives > 0) {
+            final int x = random.nextInt(width);
+            final int y = random.nextInt(height);
+            if (maskData[(y * width + x) * mask.channels()] == 0) {
+                continue;
+            }
+            final boolean isVessel = manualData[(y * width + x) * manual.channels()] != 0;
+            if (isVessel ? positives == 0 : negatives == 0) {
+                continue;
+            }
+            if (isVessel) {
+                positives--;
+            } else {
+                negatives--;
+            }
+            final Mat surrounding = ImageUtils.getSurroundingPixels(image, x, y, SIZE);
+            vectors.add(new TrainingVector(VARIANT_MODEL.getVector(surrounding), isVessel));
+            surrounding.release();
+        }
+    }
+
+    /**
+     * Cuts surroundings of a pixel into a buffer from {@link MatPool}, so that operations do not leave native memory
+     * to finalizers, which would pause the measurements.
+     */
+    private Mat cutSurrounding(int x, int y) {
+        final Mat destination = MatPool.acquire(2 * SIZE + 1, 2 * SIZE + 1, image.type());
+        return ImageUtils.getSurroundingPixels(image, x, y, SIZE, destination);
+    }
+
+    private static File correspondingFile(File dataDir, String subfolder, File image) {
+        return ImageUtils.findCorrespondingFile(new File(dataDir, subfolder), image.getName());
+    }
+
+    private static Mat loadCorrespondingImage(File dataDir, String subfolder, File image) {
+        final File file = correspondingFile(dataDir, subfolder, image);
+        if (file == null) {
+            throw new IllegalArgumentException("No file of image " + image + " in '" + subfolder + "' directory");
+        }
+        return Imgcodecs.imread(file.getAbsolutePath());
+    }
+
+    private static File[] listSorted(File directory) {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IllegalArgumentException(directory + " does not exist");
+        }
+        Arrays.sort(files);
+        return files;
+    }
+}
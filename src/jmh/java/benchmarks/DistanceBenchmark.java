@@ -0,0 +1,73 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Neighbour search for one query: exhaustive with the original {@code Math.pow} and {@code Math.sqrt} distance,
+ * exhaustive with squared distances abandoned early, and the k-d tree. Queries are vectors of pixels drawn from a
+ * fixed pseudo-random sequence.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DistanceBenchmark {
+
+    private static final int NUMBER_OF_QUERIES = 1024;
+
+    @Param({"100", "1000", "10000"})
+    public int trainingSetSize;
+
+    private Workload workload;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        workload = Workload.create();
+        workload.setUp(System.getProperty("examples.dir", "Examples"), trainingSetSize);
+        final Random random = new Random(42);
+        final int[] xs = new int[NUMBER_OF_QUERIES];
+        final int[] ys = new int[NUMBER_OF_QUERIES];
+        for (int i = 0; i < NUMBER_OF_QUERIES; i++) {
+            xs[i] = random.nextInt(workload.getWidth());
+            ys[i] = random.nextInt(workload.getHeight());
+        }
+        workload.prepareQueries(xs, ys);
+    }
+
+    @Benchmark
+    public Object powSqrt() {
+        return workload.nearestNeighboursPowSqrt(next());
+    }
+
+    @Benchmark
+    public Object squaredEarlyAbandoning() {
+        return workload.nearestNeighboursKernel(next());
+    }
+
+    @Benchmark
+    public Object kdTree() {
+        return workload.nearestNeighboursKDTree(next());
+    }
+
+    private int next() {
+        cursor = (cursor + 1) & (NUMBER_OF_QUERIES - 1);
+        return cursor;
+    }
+}
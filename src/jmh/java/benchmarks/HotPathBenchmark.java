@@ -0,0 +1,76 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-pixel operations of the classification hot path. Pixels are drawn from a fixed pseudo-random sequence, so every
+ * run visits the same ones.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HotPathBenchmark {
+
+    private static final int NUMBER_OF_PIXELS = 4096;
+
+    @Param({"100", "1000", "10000"})
+    public int trainingSetSize;
+
+    private Workload workload;
+    private int[] xs;
+    private int[] ys;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        workload = Workload.create();
+        workload.setUp(System.getProperty("examples.dir", "Examples"), trainingSetSize);
+        final Random random = new Random(42);
+        xs = new int[NUMBER_OF_PIXELS];
+        ys = new int[NUMBER_OF_PIXELS];
+        for (int i = 0; i < NUMBER_OF_PIXELS; i++) {
+            xs[i] = random.nextInt(workload.getWidth());
+            ys[i] = random.nextInt(workload.getHeight());
+        }
+    }
+
+    @Benchmark
+    public Object getSurroundingPixels() {
+        final int i = next();
+        return workload.getSurroundingPixels(xs[i], ys[i]);
+    }
+
+    @Benchmark
+    public Object huMomentsGetVector() {
+        final int i = next();
+        return workload.getHuMomentsVector(xs[i], ys[i]);
+    }
+
+    @Benchmark
+    public boolean isVessel() {
+        final int i = next();
+        return workload.isVessel(xs[i], ys[i]);
+    }
+
+    private int next() {
+        cursor = (cursor + 1) & (NUMBER_OF_PIXELS - 1);
+        return cursor;
+    }
+}
@@ -0,0 +1,56 @@
+package benchmarks;
+
+/**
+ * Hot path operations exercised by the benchmarks. Application classes live in the default package, which cannot be
+ * imported from here, so they are reached through this interface implemented by {@code HotPathWorkload}.
+ */
+public interface Workload {
+
+    /**
+     * Loads the fixtures and trains the classifier.
+     *
+     * @param examplesDir     directory containing 'training' and 'test' subdirectories with fixtures
+     * @param trainingSetSize number of training cases, half of them positive
+     */
+    void setUp(String examplesDir, int trainingSetSize);
+
+    int getWidth();
+
+    int getHeight();
+
+    Object getSurroundingPixels(int x, int y);
+
+    Object getHuMomentsVector(int x, int y);
+
+    boolean isVessel(int x, int y);
+
+    Object computeConfusionMatrix();
+
+    Object equalizeOnlyGreen();
+
+    /**
+     * Computes normalized vectors of given pixels, used as queries by the neighbour search operations.
+     */
+    void prepareQueries(int[] xs, int[] ys);
+
+    /**
+     * Finds neighbours of a prepared query comparing it with every training case, with distances computed the way
+     * the classifier originally did, using {@code Math.pow} and {@code Math.sqrt}.
+     */
+    Object nearestNeighboursPowSqrt(int query);
+
+    /**
+     * Finds neighbours of a prepared query comparing it with every training case using {@code DistanceKernel}.
+     */
+    Object nearestNeighboursKernel(int query);
+
+    Object nearestNeighboursKDTree(int query);
+
+    static Workload create() {
+        try {
+            return (Workload) Class.forName("HotPathWorkload").newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create workload", e);
+        }
+    }
+}
@@ -1,4 +1,5 @@
 import org.opencv.core.Mat;
+import org.opencv.core.Rect;
 
 public abstract class AbstractClassifier {
 
@@ -8,5 +9,61 @@ public abstract class AbstractClassifier {
         this.trainingSet = trainingSet;
     }
 
+    /**
+     * Decides whether a pixel belongs to a vessel. Surroundings of the pixel, as large as the ones the classifier was
+     * trained on, are cut out of the image. Classifying many pixels this way is slow, as each needs its own cut out
+     * image, {@link #classifyRegion(FeatureMap, Rect, byte[])} should be used instead.
+     *
+     * @param image whole preprocessed image containing the pixel
+     * @param x     column of the pixel in the image
+     * @param y     row of the pixel in the image
+     * @return true if pixel belongs to a vessel
+     */
     abstract boolean isVessel(Mat image, int x, int y);
+
+    /**
+     * Decides whether pixel described by given vector of attributes belongs to a vessel.
+     *
+     * @param vector attributes of the pixel, not normalized
+     * @return true if pixel belongs to a vessel
+     */
+    abstract boolean isVessel(double[] vector);
+
+    /**
+     * Decides about all pixels of a region at once. Classifiers may override it to share work between the pixels,
+     * by default each pixel is classified separately.
+     *
+     * @param features vectors of attributes of the pixels
+     * @param roi      region of the image to classify
+     * @param mask     buffer of roi.width * roi.height bytes, row by row. On input non-zero for pixels to classify, on
+     *                 output 255 for pixels found to be vessels and 0 for the others
+     */
+    public void classifyRegion(FeatureMap features, Rect roi, byte[] mask) {
+        final double[] vector = new double[trainingSet.getDimension()];
+        for (int y = 0; y < roi.height; y++) {
+            for (int x = 0; x < roi.width; x++) {
+                final int pixel = y * roi.width + x;
+                if (mask[pixel] != 0) {
+                    features.getVector(roi.x + x, roi.y + y, vector);
+                    mask[pixel] = isVessel(vector) ? (byte) 255 : 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns classifier which keeps deciding the same way even if this one changes, so that all pixels of an image
+     * can be classified by the same model.
+     *
+     * @return classifier in its current state
+     */
+    public AbstractClassifier snapshot() {
+        return this;
+    }
+
+    /**
+     * Frees resources held by the classifier, e.g. its metrics. The classifier must not be used afterwards.
+     */
+    public void release() {
+    }
 }
@@ -6,5 +6,36 @@ public interface AbstractVariantModel {
 
     List<Double> getVector(Mat image);
 
+    /**
+     * Computes the same vector as {@link #getVector(Mat)} into given array. Models may override it to avoid
+     * allocating for every pixel.
+     *
+     * @param image  surroundings of a pixel
+     * @param vector array receiving the attributes, {@link #getDimension()} long
+     */
+    default void getVector(Mat image, double[] vector) {
+        final List<Double> attributes = getVector(image);
+        for (int attr = 0; attr < vector.length; attr++) {
+            vector[attr] = attributes.get(attr);
+        }
+    }
+
+    /**
+     * @return number of attributes in vectors produced by this model
+     */
+    int getDimension();
+
+    /**
+     * Creates map of vectors for all pixels of an image. Vector of each pixel is the same as the one computed by
+     * {@link #getVector(Mat)} from its surroundings, with black beyond image borders.
+     *
+     * @param image whole image
+     * @param size  how many pixels to take from each side of pixel
+     * @return map of vectors
+     */
+    default FeatureMap getFeatureMap(Mat image, int size) {
+        return new PatchFeatureMap(this, image, size);
+    }
+
     String toString();
 }
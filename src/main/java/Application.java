@@ -1,7 +1,6 @@
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
-import org.opencv.core.Core;
 import org.opencv.core.Mat;
-import org.opencv.core.Scalar;
 import org.opencv.imgcodecs.Imgcodecs;
 
 import java.io.File;
@@ -9,10 +8,9 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.LongSummaryStatistics;
 import java.util.concurrent.TimeUnit;
 
 public class Application {
@@ -21,10 +19,54 @@ public class Application {
     private static final int NUMBER_OF_SAMPLES = 5;
     private static final short NUMBER_OF_NEIGHBOURS = 11;
     private static final VariantModel VARIANT_MODEL = VariantModel.HU_MOMENTS;
+    private static final boolean DENSE_FEATURES = true;
+    /**
+     * Distance between pixels classified in the coarse pass, see {@link ClassificationEngine}, 1 to classify every
+     * pixel in one pass.
+     */
+    private static final int COARSE_STEP = 1;
+    /**
+     * How long to wait for refinement of the coarse result, or 0 to always wait for the refined result.
+     */
+    private static final long DEADLINE_MILLIS = 0;
+    private static final String SAMPLES_FILE = "samples.bin";
+    /**
+     * Directory of samples stored as one image per sample, named T_* for vessels and F_* for background, which are
+     * imported into {@link #SAMPLES_FILE} instead of generating new samples.
+     */
+    private static final String SAMPLES_FOLDER = "samples";
+    private static final int SAMPLE_CHANNELS = 3;
+    /**
+     * Seed of the random choice of samples, the same seed gives the same samples.
+     */
+    private static final long SAMPLING_SEED = 42;
+    private static final String MODEL_FILE = "model.bin";
+    private static final String REDUCED_MODEL_FILE = "reduced-model.bin";
+    /**
+     * Whether to classify with prototypes selected from the training set, see {@link PrototypeReduction}.
+     */
+    private static final boolean REDUCE_TRAINING_SET = false;
+    private static final int EDITING_NEIGHBOURS = 3;
+    /**
+     * How many nearest prototypes have to classify the other training cases correctly, see
+     * {@link PrototypeReduction}, which explains why it is fewer than the neighbours voting in the classifier.
+     */
+    private static final int CONDENSING_NEIGHBOURS = 1;
+    /**
+     * Quantization step of cached decisions, see {@link CachingClassifier}, or 0 to classify every pixel exactly.
+     */
+    private static final double PREDICTION_CACHE_STEP = 0;
+    private static final long PREDICTION_CACHE_SIZE = 1_000_000;
+    /**
+     * How many bytes of native memory short-lived Mats may take before their buffers stop being reused, see
+     * {@link MatPool}.
+     */
+    private static final long NATIVE_MEMORY_BUDGET = 256L << 20;
     private final ImageLoader imageLoader = new ImageLoader(ImageUtils::equalizeOnlyGreen);
 
     public Application() {
         nu.pattern.OpenCV.loadShared();
+        MatPool.setBudget(NATIVE_MEMORY_BUDGET);
     }
 
     public static void main(String[] args) throws Exception {
@@ -36,110 +78,311 @@ public class Application {
         app.run(args);
     }
 
-    public void run(String[] args) throws IOException, InterruptedException {
+    public void run(String[] args) throws IOException {
         String trainingDir = args[0];
         String workingFile = args[1];
-        final Path samplesPath = Paths.get(trainingDir, "samples");
-        final File samplesFolder = samplesPath.toFile();
-        if (!samplesFolder.exists()) {
-            boolean succeeded = samplesFolder.mkdir();
-            if (!succeeded) {
-                throw new RuntimeException("Could not create 'samples' directory");
+        final AbstractClassifier classifier = trainClassifier(trainingDir);
+
+        final Mat image = loadImage(workingFile);
+        final Mat mask = loadCorrespondingImage(workingFile, "masks");
+        final ClassificationEngine engine = createEngine(classifier);
+        final Mat result;
+        try {
+            result = classify(engine, workingFile, image, mask);
+        } finally {
+            engine.shutdown();
+            classifier.release();
+            image.release();
+            mask.release();
+        }
+        saveResult(workingFile, result);
+        result.release();
+    }
+
+    /**
+     * Generates samples if they do not exist yet and returns classifier trained on them.
+     *
+     * @param trainingDir directory containing 'images', 'manuals' and 'masks' subdirectories
+     * @return trained classifier
+     * @throws IOException if samples cannot be read or written
+     */
+    public AbstractClassifier trainClassifier(String trainingDir) throws IOException {
+        final ModelSnapshot model = trainModel(trainingDir);
+        return createClassifier(REDUCE_TRAINING_SET ? reduceModel(model, trainingDir) : model);
+    }
+
+    /**
+     * Imports samples from the 'samples' subdirectory or generates them if they do not exist yet and returns model
+     * trained on them.
+     *
+     * @param trainingDir directory containing 'images', 'manuals' and 'masks' subdirectories
+     * @return trained model
+     * @throws IOException if samples cannot be read or written
+     */
+    public ModelSnapshot trainModel(String trainingDir) throws IOException {
+        final Path samplesPath = Paths.get(trainingDir, SAMPLES_FILE);
+        if (!samplesPath.toFile().exists()) {
+            // Generate into a temporary file, so that an interrupted run does not leave an incomplete archive
+            final File temporary = Paths.get(trainingDir, SAMPLES_FILE + ".tmp").toFile();
+            if (temporary.exists() && !temporary.delete()) {
+                throw new RuntimeException("Could not delete " + temporary);
+            }
+            final File[] sampleFiles = Paths.get(trainingDir, SAMPLES_FOLDER).toFile().listFiles();
+            try (SampleArchive.Writer archive = new SampleArchive.Writer(temporary.toPath(), SIZE * 2 + 1,
+                                                                         SIZE * 2 + 1, SAMPLE_CHANNELS)) {
+                if (sampleFiles != null && sampleFiles.length > 0) {
+                    System.out.println("Importing samples...");
+                    importSamples(sampleFiles, archive);
+                } else {
+                    System.out.println("Generating samples...");
+                    ImageUtils.generateSamplesForFolderParallel(trainingDir, archive, imageLoader,
+                            NUMBER_OF_SAMPLES, NUMBER_OF_SAMPLES, SIZE, SAMPLING_SEED);
+                }
+            }
+            if (!temporary.renameTo(samplesPath.toFile())) {
+                throw new RuntimeException("Could not create " + samplesPath);
+            }
+        }
+        final SampleArchive samples = SampleArchive.open(samplesPath);
+        System.out.println(String.format("There are total of %1d samples of size %2d", samples.size(), SIZE * 2 + 1));
+        return getTrainedModel(samples, ModelSnapshot.fingerprint(samplesPath.toFile()),
+                               Paths.get(trainingDir, MODEL_FILE));
+    }
+
+    /**
+     * Returns model with the training set reduced to prototypes, loading it if it has been reduced before.
+     *
+     * @param model       model trained on all samples
+     * @param trainingDir directory the model was trained from, where the reduced model is stored
+     * @return reduced model
+     */
+    public ModelSnapshot reduceModel(ModelSnapshot model, String trainingDir) {
+        final Path snapshotPath = Paths.get(trainingDir, REDUCED_MODEL_FILE);
+        // Reduced model depends on the samples and on the parameters of the reduction
+        final long fingerprint = Hashing.murmur3_128().newHasher()
+                                        .putLong(model.getSamplesFingerprint())
+                                        .putInt(EDITING_NEIGHBOURS)
+                                        .putInt(CONDENSING_NEIGHBOURS)
+                                        .hash().asLong();
+        if (snapshotPath.toFile().exists()) {
+            try {
+                final ModelSnapshot snapshot = ModelSnapshot.read(snapshotPath);
+                if (snapshot.matches(model.getVariantModel(), model.getSize(), fingerprint)) {
+                    System.out.println("Loaded reduced model " + snapshotPath);
+                    return snapshot;
+                }
+            } catch (IOException e) {
+                System.err.println("Could not load reduced model: " + e.getMessage());
             }
-            System.out.println("Generating samples...");
-            ImageUtils.generateSamplesForFolderParallel(trainingDir, samplesPath.toString(), imageLoader,
-                    NUMBER_OF_SAMPLES, NUMBER_OF_SAMPLES, SIZE);
         }
+        final NormalizedTrainingSet prototypes =
+                PrototypeReduction.reduce(model.getTrainingSet(), EDITING_NEIGHBOURS, CONDENSING_NEIGHBOURS);
+        System.out.println(String.format("Training set reduced from %d to %d cases", model.getTrainingSet().size(),
+                                         prototypes.size()));
+        final ModelSnapshot snapshot = new ModelSnapshot(model.getVariantModel(), model.getSize(), fingerprint,
+                                                         prototypes);
+        try {
+            snapshot.write(snapshotPath);
+        } catch (IOException e) {
+            System.err.println("Could not save reduced model: " + e.getMessage());
+        }
+        return snapshot;
+    }
+
+    public AbstractClassifier createClassifier(ModelSnapshot model) {
+        final AbstractClassifier classifier = new KNNClassifier(model, NUMBER_OF_NEIGHBOURS);
+        if (PREDICTION_CACHE_STEP > 0) {
+            return new CachingClassifier(classifier, PREDICTION_CACHE_STEP, PREDICTION_CACHE_SIZE);
+        }
+        return classifier;
+    }
+
+    /**
+     * Creates classifier accepting new training cases while it is in use, see {@link UpdatableKNNClassifier}.
+     */
+    public UpdatableKNNClassifier createUpdatableClassifier(ModelSnapshot model) {
+        return new UpdatableKNNClassifier(IncrementalTrainingSet.of(model.getTrainingSet()), model.getVariantModel(),
+                                          model.getSize(), NUMBER_OF_NEIGHBOURS);
+    }
+
+    /**
+     * Computes vector of attributes of a pixel of preprocessed image, the same as used for training.
+     */
+    public double[] computeVector(Mat image, int x, int y) {
+        final Mat surrounding = ImageUtils.getSurroundingPixels(image, x, y, SIZE,
+                                                                MatPool.acquire(2 * SIZE + 1, 2 * SIZE + 1, image.type()));
+        final double[] vector = new double[VARIANT_MODEL.getDimension()];
+        VARIANT_MODEL.getVector(surrounding, vector);
+        MatPool.release(surrounding);
+        return vector;
+    }
+
+    /**
+     * Creates classifier finding the neighbours approximately, see {@link ApproximateKNNClassifier}.
+     */
+    public AbstractClassifier createApproximateClassifier(ModelSnapshot model, int numberOfTrees) {
+        return new ApproximateKNNClassifier(model, NUMBER_OF_NEIGHBOURS, numberOfTrees);
+    }
+
+    /**
+     * @return how many pixels are taken from each side of a pixel to compute its vector
+     */
+    public int getSize() {
+        return SIZE;
+    }
+
+    public ClassificationEngine createEngine(AbstractClassifier classifier) {
+        return new ClassificationEngine(classifier, VARIANT_MODEL, SIZE, DENSE_FEATURES,
+                                        ClassificationEngine.DEFAULT_TILE_SIZE, COARSE_STEP,
+                                        Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Loads and preprocesses image to classify.
+     */
+    public Mat loadImage(String workingFile) {
+        return imageLoader.loadImage(workingFile);
+    }
+
+    /**
+     * Decodes and preprocesses image to classify.
+     */
+    public Mat decodeImage(byte[] encoded) {
+        return imageLoader.loadImage(encoded);
+    }
+
+    /**
+     * Loads file corresponding to the image to classify from a sibling of its directory, e.g. its mask or manual.
+     *
+     * @throws IllegalArgumentException if there is no such file
+     */
+    public Mat loadCorrespondingImage(String workingFile, String subfolder) {
+        final File file = getCorrespondingFile(workingFile, subfolder);
+        if (file == null) {
+            throw new IllegalArgumentException("No file of image " + workingFile + " in '" + subfolder + "' directory");
+        }
+        return Imgcodecs.imread(file.getAbsolutePath());
+    }
+
+    /**
+     * Finds file corresponding to the image to classify in a sibling of its directory, e.g. its mask or manual, see
+     * {@link ImageUtils#findCorrespondingFile}.
+     *
+     * @return the file, or null if there is none
+     */
+    public File getCorrespondingFile(String workingFile, String subfolder) {
+        final File workingDir = new File(workingFile).getAbsoluteFile().getParentFile().getParentFile();
+        return ImageUtils.findCorrespondingFile(Paths.get(workingDir.getAbsolutePath(), subfolder).toFile(),
+                                                new File(workingFile).getName());
+    }
+
+    /**
+     * Classifies pixels of the image inside the field of view. Pixels outside are not classified and stay black.
+     */
+    public Mat classify(ClassificationEngine engine, String workingFile, Mat image, Mat mask) {
+        System.out.println("Processing image " + workingFile);
+        final long start = System.nanoTime();
+        final ClassificationEngine.Job job = engine.submit(image, mask);
+        final Mat result = DEADLINE_MILLIS > 0 ? job.get(DEADLINE_MILLIS, TimeUnit.MILLISECONDS) : job.get();
+        if (job.isRefinementStopped()) {
+            System.out.println("Deadline expired, parts of the result are coarse");
+        }
+        printTileTimings(job.getTileTimings());
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("Classifier was asked about %d pixels, %.0f pixels/s",
+                                         job.getClassifiedPixels(), job.getClassifiedPixels() / seconds));
+        return result;
+    }
+
+    /**
+     * Writes result mask and its statistics to 'results' directory next to the directory of the classified image.
+     */
+    public void saveResult(String workingFile, Mat result) {
         final File workingDir = new File(workingFile).getParentFile().getParentFile();
         final Path resultsPath = Paths.get(workingDir.getAbsolutePath(), "results");
         final File resultsFolder = resultsPath.toFile();
         if (!resultsFolder.exists()) {
             boolean succeeded = resultsFolder.mkdir();
-            if (!succeeded) {
+            if (!succeeded && !resultsFolder.exists()) {
                 throw new RuntimeException("Could not create 'results' directory");
             }
         }
-        final File[] samples = samplesFolder.listFiles();
-        System.out.println(String.format("There are total of %1d samples of size %2d", samples.length, SIZE * 2 + 1));
-        final AbstractClassifier classifier = getTrainedClassifier(samples);
-
-        final Mat image = imageLoader.loadImage(workingFile);
-        final Mat result = new Mat(image.size(), image.type(), new Scalar(0));
-        ExecutorService exec = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-        try {
-            System.out.println("Processing image " + workingFile);
-            ProgressInfo progressInfo = new ProgressInfo(image.width() * image.height());
-            for (int y = 0; y < image.height(); y++) {
-                final int finalY = y;
-                exec.submit(() -> {
-                    for (int x = 0; x < image.width(); x++) {
-                        final Mat surrounding = ImageUtils.getSurroundingPixels(image, x, finalY, SIZE);
-                        if (classifier.isVessel(surrounding, surrounding.width() / 2, surrounding.height() / 2)) {
-                            result.put(finalY, x, 255, 255, 255);
-                        }
-                        progressInfo.incrementWorkCount();
-                    }
-                });
-            }
-        } finally {
-            exec.shutdown();
-            // Wait forever for all threads
-            exec.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-            System.gc();
-        }
-
-        // Post-process the image
-        ImageProcessor postProcessor = new ImageProcessor(
-                (Mat resultImage) -> {
-                    String maskPath = getCorrespondingFile(workingDir.getAbsolutePath(), (new File(workingFile)).getName(), "masks").getAbsolutePath();
-                    Mat mask = Imgcodecs.imread(maskPath);
-                    Core.min(resultImage, mask, resultImage);
-                    return resultImage;
-                }
-        );
-
-        System.out.println("Postprocessing image");
-        Mat processedResult = postProcessor.applyProcessors(result);
 
         String resultFile = Paths.get(resultsPath.toString(), (new File(workingFile)).getName()).toString();
         System.out.println("Saving result mask " + resultFile);
-        Imgcodecs.imwrite(resultFile, processedResult);
+        long start = System.nanoTime();
+        Imgcodecs.imwrite(resultFile, result);
+        Metrics.get().record(Metrics.Stage.WRITE, start);
 
+        final File manual = getCorrespondingFile(workingFile, "manuals");
+        if (manual == null) {
+            System.out.println("No manual of " + workingFile + ", statistics are not computed");
+            return;
+        }
         System.out.println("Computing and saving statistics");
-        String referenceManualPath = getCorrespondingFile(workingDir.getAbsolutePath(), (new File(workingFile)).getName(),
-                "manuals").getAbsolutePath();
-        Mat referenceManual = Imgcodecs.imread(referenceManualPath);
-        StatisticUtils.writeStatistics(referenceManual, processedResult,
+        Mat referenceManual = Imgcodecs.imread(manual.getAbsolutePath());
+        start = System.nanoTime();
+        StatisticUtils.writeStatistics(referenceManual, result,
                 Paths.get(resultsPath.toString(), (Files.getNameWithoutExtension(workingFile) + "_stats.txt")).toString());
+        Metrics.get().record(Metrics.Stage.STATISTICS, start);
+        referenceManual.release();
     }
 
-    private AbstractClassifier getTrainedClassifier(File[] samples) {
+    /**
+     * Loads model snapshot if it was trained on the same samples with the same parameters, otherwise trains the model
+     * and stores new snapshot.
+     */
+    private ModelSnapshot getTrainedModel(SampleArchive samples, long samplesFingerprint, Path snapshotPath) {
+        if (snapshotPath.toFile().exists()) {
+            try {
+                final ModelSnapshot snapshot = ModelSnapshot.read(snapshotPath);
+                if (snapshot.matches(VARIANT_MODEL, SIZE, samplesFingerprint)) {
+                    System.out.println("Loaded trained model " + snapshotPath);
+                    return snapshot;
+                }
+            } catch (IOException e) {
+                System.err.println("Could not load trained model: " + e.getMessage());
+            }
+        }
         final List<TrainingVector> vectors = new ArrayList<>();
-        for (File sample : samples) {
-            final boolean isVessel = sample.getName().contains("T");
-            final TrainingVariant variant = new TrainingVariant(sample.getPath(), isVessel);
-            vectors.add(variant.getTrainingVector(VARIANT_MODEL));
+        for (int i = 0; i < samples.size(); i++) {
+            final Mat sample = samples.getSample(i);
+            try {
+                vectors.add(new TrainingVariant(sample, samples.isVessel(i)).getTrainingVector(VARIANT_MODEL));
+            } finally {
+                sample.release();
+            }
+        }
+        final ModelSnapshot snapshot = new ModelSnapshot(VARIANT_MODEL, SIZE, samplesFingerprint,
+                                                         new NormalizedTrainingSet(vectors));
+        try {
+            snapshot.write(snapshotPath);
+        } catch (IOException e) {
+            System.err.println("Could not save trained model: " + e.getMessage());
         }
-        final NormalizedTrainingSet trainingSet = new NormalizedTrainingSet(vectors);
-        return new KNNClassifier(trainingSet, VARIANT_MODEL, NUMBER_OF_NEIGHBOURS);
+        return snapshot;
     }
 
-    private File getCorrespondingFile(String workingDir, String filename, String subfolder) {
-        File[] images = Paths.get(workingDir, "images").toFile().listFiles();
-        if (images == null) {
-            throw new RuntimeException("Images folder does not exist!");
-        }
-        int imageIndex = -1;
-        for (int i = 0; i < images.length; i++) {
-            if (Objects.equals(images[i].getName(), filename)) {
-                imageIndex = i;
+    /**
+     * Appends samples stored as image files to the archive, in order of their names.
+     */
+    private void importSamples(File[] sampleFiles, SampleArchive.Writer archive) throws IOException {
+        Arrays.sort(sampleFiles);
+        for (File sampleFile : sampleFiles) {
+            final Mat sample = Imgcodecs.imread(sampleFile.getAbsolutePath());
+            if (sample.empty()) {
+                throw new IOException("Could not read sample " + sampleFile);
             }
+            archive.append(sample, sampleFile.getName().startsWith("T"));
+            sample.release();
         }
-        // Get the file with the same index from a different subfolder
-        File[] otherFiles = Paths.get(workingDir, subfolder).toFile().listFiles();
-        if (otherFiles == null) {
-            throw new RuntimeException(subfolder + " folder does not exist!");
-        }
-        return otherFiles[imageIndex];
+    }
+
+    private void printTileTimings(List<ClassificationEngine.TileTiming> tileTimings) {
+        final LongSummaryStatistics statistics = tileTimings.stream()
+                                                            .mapToLong(ClassificationEngine.TileTiming::getNanos)
+                                                            .summaryStatistics();
+        System.out.println(String.format("Classified %d tiles, average %.1f ms, slowest %.1f ms",
+                                         statistics.getCount(), statistics.getAverage() / 1e6, statistics.getMax() / 1e6));
     }
 }
@@ -0,0 +1,35 @@
+/**
+ * KNN classifier finding the neighbours approximately with a {@link RandomProjectionForest}. Trades some accuracy of
+ * the decisions for speed on large training sets, the number of trees controls the trade-off.
+ */
+public class ApproximateKNNClassifier extends KNNClassifier {
+
+    private static final long SEED = 42;
+    private static final int MIN_LEAF_SIZE = 32;
+
+    /**
+     * @param trainingSet        normalized training cases
+     * @param variantModel       model computing vectors of attributes
+     * @param size               how many pixels were taken from each side of training pixels to compute their vectors
+     * @param numberOfNeighbours how many neighbours vote, must be odd
+     * @param numberOfTrees      number of random projection trees, more trees find the true neighbours more often
+     */
+    public ApproximateKNNClassifier(NormalizedTrainingSet trainingSet, VariantModel variantModel, int size,
+                                    short numberOfNeighbours, int numberOfTrees) {
+        super(trainingSet, variantModel, size, numberOfNeighbours,
+              new RandomProjectionForest(trainingSet, numberOfTrees,
+                                         Math.max(MIN_LEAF_SIZE, 2 * numberOfNeighbours), SEED));
+    }
+
+    /**
+     * Creates classifier from a stored model, without recomputing its training set.
+     *
+     * @param snapshot           stored model
+     * @param numberOfNeighbours how many neighbours vote, must be odd
+     * @param numberOfTrees      number of random projection trees, more trees find the true neighbours more often
+     */
+    public ApproximateKNNClassifier(ModelSnapshot snapshot, short numberOfNeighbours, int numberOfTrees) {
+        this(snapshot.getTrainingSet(), snapshot.getVariantModel(), snapshot.getSize(), numberOfNeighbours,
+             numberOfTrees);
+    }
+}
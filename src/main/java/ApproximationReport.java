@@ -0,0 +1,140 @@
+import org.opencv.core.Mat;
+
+import java.util.Arrays;
+
+/**
+ * Compares decisions of approximations of the exact {@link KNNClassifier} against its own decisions on the same image,
+ * to help choosing their parameters. Approximations are {@link ApproximateKNNClassifier} with different numbers of
+ * trees and {@link CachingClassifier} with different quantization steps.
+ * <p>
+ * For each classifier prints time of building its index and of classification, its statistics against the manual
+ * segmentation and how many of its decisions differ from the exact ones.
+ */
+public class ApproximationReport {
+
+    private static final String TREES_OPTION = "trees=";
+    private static final String CACHE_STEPS_OPTION = "cacheSteps=";
+    private static final int[] DEFAULT_NUMBERS_OF_TREES = {1, 2, 4, 8, 16};
+    private static final double[] DEFAULT_CACHE_STEPS = {0.01, 0.05, 0.1, 0.2};
+    private static final long CACHE_SIZE = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Proper arguments: <Training dir containing 'images', 'manuals' and 'masks' subdirs>" +
+                                                 " <image_to_classify> [trees=1,2,...] [cacheSteps=0.1,0.2,...]");
+            System.exit(1);
+        }
+        String trainingDir = args[0];
+        String workingFile = args[1];
+        int[] numbersOfTrees = DEFAULT_NUMBERS_OF_TREES;
+        double[] cacheSteps = DEFAULT_CACHE_STEPS;
+        for (String option : Arrays.copyOfRange(args, 2, args.length)) {
+            if (option.startsWith(TREES_OPTION)) {
+                numbersOfTrees = Arrays.stream(option.substring(TREES_OPTION.length()).split(","))
+                                       .filter(value -> !value.isEmpty())
+                                       .mapToInt(Integer::parseInt).toArray();
+            } else if (option.startsWith(CACHE_STEPS_OPTION)) {
+                cacheSteps = Arrays.stream(option.substring(CACHE_STEPS_OPTION.length()).split(","))
+                                   .filter(value -> !value.isEmpty())
+                                   .mapToDouble(Double::parseDouble).toArray();
+            } else {
+                throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+
+        Application app = new Application();
+        ModelSnapshot model = app.trainModel(trainingDir);
+        Mat image = null;
+        Mat mask = null;
+        Mat manual = null;
+        Mat exact = null;
+        AbstractClassifier exactClassifier = null;
+        StringBuilder report = new StringBuilder();
+        try {
+            image = app.loadImage(workingFile);
+            mask = app.loadCorrespondingImage(workingFile, "masks");
+            manual = app.loadCorrespondingImage(workingFile, "manuals");
+
+            long start = System.nanoTime();
+            exactClassifier = app.createClassifier(model);
+            long buildTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            exact = classify(app, exactClassifier, workingFile, image, mask);
+            long classificationTime = System.nanoTime() - start;
+            report.append(String.format("Training set of %d cases%n%n", model.getTrainingSet().size()));
+            report.append(describe("Exact", buildTime, classificationTime, exact, manual, exact));
+
+            for (int numberOfTrees : numbersOfTrees) {
+                start = System.nanoTime();
+                AbstractClassifier classifier = app.createApproximateClassifier(model, numberOfTrees);
+                buildTime = System.nanoTime() - start;
+                Mat result = null;
+                try {
+                    start = System.nanoTime();
+                    result = classify(app, classifier, workingFile, image, mask);
+                    classificationTime = System.nanoTime() - start;
+                    report.append(describe("Approximate, " + numberOfTrees + " trees", buildTime,
+                                           classificationTime, result, manual, exact));
+                } finally {
+                    release(result);
+                    classifier.release();
+                }
+            }
+
+            for (double cacheStep : cacheSteps) {
+                CachingClassifier classifier = new CachingClassifier(exactClassifier, cacheStep, CACHE_SIZE);
+                Mat result = null;
+                try {
+                    start = System.nanoTime();
+                    result = classify(app, classifier, workingFile, image, mask);
+                    classificationTime = System.nanoTime() - start;
+                    report.append(String.format("Cache hit rate %.3f%%, %d evictions%n",
+                                                100 * classifier.getStats().hitRate(),
+                                                classifier.getStats().evictionCount()));
+                    report.append(describe("Cached, quantization step " + cacheStep, 0, classificationTime,
+                                           result, manual, exact));
+                } finally {
+                    release(result);
+                    classifier.release();
+                }
+            }
+        } finally {
+            // Native memory of the images is freed now rather than whenever they are finalized
+            for (Mat mat : new Mat[]{image, mask, manual, exact}) {
+                release(mat);
+            }
+            if (exactClassifier != null) {
+                exactClassifier.release();
+            }
+        }
+        System.out.println(report);
+    }
+
+    private static void release(Mat mat) {
+        if (mat != null) {
+            mat.release();
+        }
+    }
+
+    private static Mat classify(Application app, AbstractClassifier classifier, String workingFile, Mat image,
+                                Mat mask) {
+        ClassificationEngine engine = app.createEngine(classifier);
+        try {
+            return app.classify(engine, workingFile, image, mask);
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    private static String describe(String name, long buildTime, long classificationTime, Mat result, Mat manual,
+                                   Mat exact) {
+        ConfusionMatrix againstExact = StatisticUtils.computeConfusionMatrix(exact, result);
+        long differing = againstExact.getFalsePositiveAmount() + againstExact.getFalseNegativeAmount();
+        return String.format("%s%nIndex built in %.1f ms, image classified in %.1f ms%n" +
+                             "Decisions differing from exact: %d (%.3f%% of pixels), " +
+                             "exact vessels found: %.3f%%%n%s%n",
+                             name, buildTime / 1e6, classificationTime / 1e6, differing,
+                             100.0 * differing / againstExact.getTotalAmount(), 100 * againstExact.getSensitivity(),
+                             StatisticUtils.formatStatistics(StatisticUtils.computeConfusionMatrix(manual, result)));
+    }
+}
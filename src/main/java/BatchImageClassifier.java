@@ -1,22 +1,118 @@
+import org.opencv.core.Mat;
+
 import java.io.File;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Classifies all images of a directory with a classifier trained once. Loading, classification and saving of results
+ * run as a pipeline: while one image is being classified, the next ones are loaded and the previous ones are saved.
+ * The stages are connected by bounded queues, so a slow stage holds back the others instead of piling up images in
+ * memory.
+ *
  * @author Krzysztof Wencel
  */
 public class BatchImageClassifier {
+
+    /**
+     * How many images may wait between two stages.
+     */
+    private static final int QUEUE_CAPACITY = 2;
+    private static final Item END = new Item(null, null, null);
+
     public static void main(String[] args) throws Exception {
         if (args.length != 2) {
             System.err.println("Proper arguments: <Training dir containing 'images', 'manuals' and 'masks' subdirs>" +
                                                  " <Working dir containing 'images', 'manuals' and 'masks' subdirs>");
             System.exit(1);
         }
+        String trainingDir = args[0];
         String workingDir = args[1];
 
+        File[] images = Paths.get(workingDir, "images").toFile().listFiles();
+        if (images == null) {
+            throw new IllegalArgumentException(workingDir + " does not contain 'images' directory");
+        }
+        Arrays.sort(images);
+
         Application app = new Application();
-        for (File image : Paths.get(workingDir, "images").toFile().listFiles()) {
-            args[1] = image.getAbsolutePath();
-            app.run(args);
+        AbstractClassifier classifier = app.trainClassifier(trainingDir);
+        ClassificationEngine engine = app.createEngine(classifier);
+        BlockingQueue<Item> loaded = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<Item> classified = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        ExecutorService stages = Executors.newFixedThreadPool(2);
+        Metrics.get().registerGauge("batch.loadedQueue", loaded::size);
+        Metrics.get().registerGauge("batch.classifiedQueue", classified::size);
+        try {
+            Future<?> loader = stages.submit(() -> {
+                try {
+                    for (File image : images) {
+                        String file = image.getAbsolutePath();
+                        loaded.put(new Item(file, app.loadImage(file), app.loadCorrespondingImage(file, "masks")));
+                    }
+                } finally {
+                    loaded.put(END);
+                }
+                return null;
+            });
+            Future<?> writer = stages.submit(() -> {
+                for (Item item = classified.take(); item != END; item = classified.take()) {
+                    app.saveResult(item.file, item.image);
+                    item.image.release();
+                }
+                return null;
+            });
+
+            for (Item item = loaded.take(); item != END; item = loaded.take()) {
+                Mat result = app.classify(engine, item.file, item.image, item.mask);
+                item.image.release();
+                item.mask.release();
+                put(classified, new Item(item.file, result, null), writer);
+            }
+            loader.get();
+            put(classified, END, writer);
+            writer.get();
+        } finally {
+            Metrics.get().unregisterGauge("batch.loadedQueue");
+            Metrics.get().unregisterGauge("batch.classifiedQueue");
+            stages.shutdownNow();
+            engine.shutdown();
+            classifier.release();
+        }
+    }
+
+    /**
+     * Waits for space in the queue, failing if its consumer fails in the meantime instead of waiting forever.
+     */
+    private static void put(BlockingQueue<Item> queue, Item item, Future<?> consumer)
+            throws InterruptedException, ExecutionException {
+        while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+            if (consumer.isDone()) {
+                consumer.get();
+                throw new IllegalStateException("Consumer stopped before the end of the queue");
+            }
+        }
+    }
+
+    /**
+     * Image passed between stages, along with its mask if it is needed by the next stage.
+     */
+    private static class Item {
+        private final String file;
+        private final Mat image;
+        private final Mat mask;
+
+        private Item(String file, Mat image, Mat mask) {
+            this.file = file;
+            this.image = image;
+            this.mask = mask;
         }
     }
 }
@@ -0,0 +1,29 @@
+/**
+ * Finds the nearest neighbours by comparing the query with every training case. For small training sets it is faster
+ * than traversing a tree, and it serves as the reference for other indices.
+ */
+public class BruteForceIndex implements NeighbourIndex {
+
+    private final int dimension;
+    private final double[] data;
+
+    public BruteForceIndex(NormalizedTrainingSet trainingSet) {
+        this.dimension = trainingSet.getDimension();
+        this.data = trainingSet.getData();
+    }
+
+    /**
+     * Finds training cases closest to the given vector in terms of euclidean distance. Ties are resolved in favour of
+     * the training case which comes first in the training set.
+     */
+    @Override
+    public void nearestNeighbours(double[] query, NeighbourHeap neighbours) {
+        neighbours.clear();
+        refineNeighbours(query, neighbours);
+    }
+
+    @Override
+    public void refineNeighbours(double[] query, NeighbourHeap neighbours) {
+        DistanceKernel.scan(query, data, dimension, 0, data.length / dimension, null, neighbours);
+    }
+}
@@ -0,0 +1,124 @@
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import org.opencv.core.Mat;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers decisions of another classifier for similar vectors. Normalized attributes are quantized to a grid of
+ * cubes with given side, and all vectors falling into one cube get the decision made for the center of the cube. Large
+ * areas of an image, like the background, give nearly identical vectors, so most of them skip the classification.
+ * <p>
+ * Decisions do not depend on the order in which pixels are classified, but they may differ from the decisions of the
+ * wrapped classifier near the boundary between classes. The coarser the grid, the more often that happens.
+ */
+public class CachingClassifier extends AbstractClassifier {
+
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private final AbstractClassifier classifier;
+    private final double quantizationStep;
+    private final LoadingCache<Cell, Boolean> decisions;
+    private final String metricsPrefix = "cache." + INSTANCES.incrementAndGet() + ".";
+
+    /**
+     * @param classifier       classifier making the decisions
+     * @param quantizationStep side of the grid cubes, in units of standard deviation of the attributes
+     * @param maximumSize      maximum number of remembered decisions, the least recently used are evicted first.
+     *                         The cache registers its gauges under its own names, {@link #release()} removes them
+     */
+    public CachingClassifier(AbstractClassifier classifier, double quantizationStep, long maximumSize) {
+        super(classifier.trainingSet);
+        if (!(quantizationStep > 0)) {
+            throw new IllegalArgumentException("Quantization step must be positive: " + quantizationStep);
+        }
+        this.classifier = classifier;
+        this.quantizationStep = quantizationStep;
+        this.decisions = CacheBuilder.newBuilder()
+                                     .maximumSize(maximumSize)
+                                     .recordStats()
+                                     .build(CacheLoader.from(this::classifyCenter));
+        Metrics.get().registerGauge(metricsPrefix + "hitRate", () -> decisions.stats().hitRate());
+        Metrics.get().registerGauge(metricsPrefix + "size", decisions::size);
+        Metrics.get().registerGauge(metricsPrefix + "evictions", () -> decisions.stats().evictionCount());
+    }
+
+    /**
+     * Classifies pixel of the image without caching, as its vector is computed by the wrapped classifier.
+     */
+    @Override
+    boolean isVessel(Mat image, int x, int y) {
+        return classifier.isVessel(image, x, y);
+    }
+
+    @Override
+    boolean isVessel(double[] vector) {
+        final double[] means = trainingSet.getMeans();
+        final double[] standardDeviations = trainingSet.getStandardDeviations();
+        final int[] cell = new int[vector.length];
+        for (int attr = 0; attr < vector.length; attr++) {
+            final double normalized = StatisticUtils.normalize(vector[attr], means[attr], standardDeviations[attr]);
+            cell[attr] = (int) Math.floor(normalized / quantizationStep);
+        }
+        return decisions.getUnchecked(new Cell(cell));
+    }
+
+    /**
+     * @return hit and miss counts of the cache since it was created
+     */
+    public CacheStats getStats() {
+        return decisions.stats();
+    }
+
+    public double getQuantizationStep() {
+        return quantizationStep;
+    }
+
+    /**
+     * Unregisters gauges of the cache and forgets the decisions. The wrapped classifier is not released, as it may be
+     * shared.
+     */
+    @Override
+    public void release() {
+        Metrics.get().unregisterGauge(metricsPrefix + "hitRate");
+        Metrics.get().unregisterGauge(metricsPrefix + "size");
+        Metrics.get().unregisterGauge(metricsPrefix + "evictions");
+        decisions.invalidateAll();
+    }
+
+    private boolean classifyCenter(Cell cell) {
+        final double[] means = trainingSet.getMeans();
+        final double[] standardDeviations = trainingSet.getStandardDeviations();
+        final double[] center = new double[cell.coordinates.length];
+        for (int attr = 0; attr < center.length; attr++) {
+            center[attr] = (cell.coordinates[attr] + 0.5) * quantizationStep * standardDeviations[attr] + means[attr];
+        }
+        return classifier.isVessel(center);
+    }
+
+    /**
+     * Cube of the quantization grid.
+     */
+    private static class Cell {
+        private final int[] coordinates;
+        private final int hash;
+
+        private Cell(int[] coordinates) {
+            this.coordinates = coordinates;
+            this.hash = Arrays.hashCode(coordinates);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Cell && Arrays.equals(coordinates, ((Cell) o).coordinates);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,644 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Classifies every pixel of an image. The image is split into square tiles which are processed on a work-stealing
+ * pool, each tile writing its decisions into its own buffer. The result mask is assembled from the buffers at the end.
+ * <p>
+ * Optionally the image is classified coarse to fine. The first pass classifies only pixels of a sparse grid and fills
+ * each cell of the grid with the decision of its corners when they all agree, or with the decision of the nearest
+ * corner when they do not. The second pass classifies every pixel of the cells whose corners disagree, which are the
+ * cells crossed by vessel boundaries. Vessels thinner than the grid step which do not cross any grid pixel are lost,
+ * so the step should not be larger than the width of the thinnest vessels of interest.
+ */
+public class ClassificationEngine {
+
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    private static final byte BACKGROUND = 0;
+    private static final byte VESSEL = 1;
+    private static final byte OUTSIDE = 2;
+    private static final AtomicLong JOB_IDS = new AtomicLong();
+
+    private final AbstractClassifier classifier;
+    private final AbstractVariantModel variantModel;
+    private final int size;
+    private final boolean denseFeatures;
+    private final int tileSize;
+    private final int coarseStep;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param classifier    classifier deciding about single pixels
+     * @param variantModel  model computing vectors of attributes the classifier was trained on
+     * @param size          how many pixels to take from each side of classified pixel
+     * @param denseFeatures whether to use the feature map of the model, which may compute vectors of whole tiles at
+     *                      once, instead of computing the vector of each pixel from its cut out surroundings
+     */
+    public ClassificationEngine(AbstractClassifier classifier, AbstractVariantModel variantModel, int size,
+                                boolean denseFeatures) {
+        this(classifier, variantModel, size, denseFeatures, DEFAULT_TILE_SIZE,
+             Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param classifier    classifier deciding about single pixels
+     * @param variantModel  model computing vectors of attributes the classifier was trained on
+     * @param size          how many pixels to take from each side of classified pixel
+     * @param denseFeatures whether to use the feature map of the model, which may compute vectors of whole tiles at
+     *                      once, instead of computing the vector of each pixel from its cut out surroundings
+     * @param tileSize      width and height of tiles, should be positive
+     * @param parallelism   number of worker threads
+     */
+    public ClassificationEngine(AbstractClassifier classifier, AbstractVariantModel variantModel, int size,
+                                boolean denseFeatures, int tileSize, int parallelism) {
+        this(classifier, variantModel, size, denseFeatures, tileSize, 1, parallelism);
+    }
+
+    /**
+     * @param classifier    classifier deciding about single pixels
+     * @param variantModel  model computing vectors of attributes the classifier was trained on
+     * @param size          how many pixels to take from each side of classified pixel
+     * @param denseFeatures whether to use the feature map of the model, which may compute vectors of whole tiles at
+     *                      once, instead of computing the vector of each pixel from its cut out surroundings
+     * @param tileSize      width and height of tiles, should be positive
+     * @param coarseStep    distance between pixels of the grid classified first, 1 to classify every pixel in one pass
+     * @param parallelism   number of worker threads
+     */
+    public ClassificationEngine(AbstractClassifier classifier, AbstractVariantModel variantModel, int size,
+                                boolean denseFeatures, int tileSize, int coarseStep, int parallelism) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+        }
+        if (coarseStep <= 0) {
+            throw new IllegalArgumentException("Coarse step must be positive: " + coarseStep);
+        }
+        this.classifier = classifier;
+        this.variantModel = variantModel;
+        this.size = size;
+        this.denseFeatures = denseFeatures;
+        this.tileSize = tileSize;
+        this.coarseStep = coarseStep;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Starts classification of the whole image in background.
+     *
+     * @param image preprocessed image, 8 bits per channel
+     * @return handle allowing to wait for the result or cancel the work
+     */
+    public Job submit(Mat image) {
+        return submit(image, null);
+    }
+
+    /**
+     * Starts classification of the image in background. Only pixels inside the field of view are classified, the
+     * others are left black in the result.
+     *
+     * @param image       preprocessed image, 8 bits per channel
+     * @param fieldOfView mask of the same size as the image, non-black inside the field of view, or null to classify
+     *                    the whole image
+     * @return handle allowing to wait for the result or cancel the work
+     */
+    public Job submit(Mat image, Mat fieldOfView) {
+        final Job job = new Job(image, fieldOfView);
+        job.task = pool.submit(job.new Passes());
+        return job;
+    }
+
+    /**
+     * Classifies the image and waits for the result.
+     *
+     * @param image       preprocessed image, 8 bits per channel
+     * @param fieldOfView mask of the same size as the image, non-black inside the field of view, or null to classify
+     *                    the whole image
+     * @return mask of the same size and type as the image, white where vessels were found
+     */
+    public Mat classify(Mat image, Mat fieldOfView) {
+        return submit(image, fieldOfView).get();
+    }
+
+    /**
+     * Stops worker threads. Already submitted jobs are still completed.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Classification of one image in progress.
+     */
+    public class Job {
+        private final Mat image;
+        private final AbstractClassifier classifier;
+        private final FeatureMap features;
+        private final byte[] fieldOfView;
+        private final Tile[] tiles;
+        private final List<TileTiming> tileTimings = Collections.synchronizedList(new ArrayList<>());
+        private final LongAdder classifiedPixels = new LongAdder();
+        private final Metrics.Progress progress;
+        private final long startTime = System.nanoTime();
+        /**
+         * Claimed by whichever comes first, the passes starting or the job being cancelled before they start, and
+         * that one releases the features once no tile reads them anymore.
+         */
+        private final AtomicBoolean featuresClaimed = new AtomicBoolean();
+        private volatile boolean cancelled;
+        private volatile boolean refinementStopped;
+        private ForkJoinTask<?> task;
+
+        private Job(Mat image, Mat fieldOfView) {
+            this.image = image;
+            this.classifier = ClassificationEngine.this.classifier.snapshot();
+            this.fieldOfView = fieldOfView != null ? readFieldOfView(fieldOfView) : null;
+            this.features = denseFeatures ? variantModel.getFeatureMap(image, size)
+                                          : new PatchFeatureMap(variantModel, image, size);
+            final int columns = (image.width() + tileSize - 1) / tileSize;
+            final int rows = (image.height() + tileSize - 1) / tileSize;
+            this.tiles = new Tile[columns * rows];
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    final int x = column * tileSize;
+                    final int y = row * tileSize;
+                    tiles[row * columns + column] = new Tile(x, y, Math.min(tileSize, image.width() - x),
+                                                             Math.min(tileSize, image.height() - y));
+                }
+            }
+            long pixelsInside = 0;
+            for (Tile tile : tiles) {
+                tile.pixelsInside = countPixelsInside(tile);
+                pixelsInside += tile.pixelsInside;
+            }
+            this.progress = Metrics.get().startProgress("Classification job " + JOB_IDS.incrementAndGet(),
+                                                        pixelsInside);
+        }
+
+        /**
+         * Waits for all tiles to be classified and assembles the result.
+         *
+         * @return mask of the same size and type as the image, white where vessels were found
+         * @throws CancellationException if the job has been cancelled
+         */
+        public Mat get() {
+            try {
+                task.join();
+            } finally {
+                progress.finish();
+            }
+            Metrics.get().record(Metrics.Stage.CLASSIFICATION, startTime);
+            final long start = System.nanoTime();
+            final Mat result = assemble();
+            Metrics.get().record(Metrics.Stage.POST_PROCESS, start);
+            return result;
+        }
+
+        /**
+         * Waits for all tiles to be classified until the deadline. If it expires, cells of the grid which have not
+         * been refined yet keep their coarse decisions. The coarse pass is always completed, so the method may return
+         * later than the deadline if it has not finished in time.
+         *
+         * @param timeout how long to wait for the refined result
+         * @param unit    unit of the timeout
+         * @return mask of the same size and type as the image, white where vessels were found
+         * @throws CancellationException if the job has been cancelled
+         */
+        public Mat get(long timeout, TimeUnit unit) {
+            try {
+                task.get(timeout, unit);
+            } catch (TimeoutException e) {
+                refinementStopped = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                refinementStopped = true;
+            } catch (ExecutionException e) {
+                // rethrown by join below
+            }
+            return get();
+        }
+
+        /**
+         * Stops classification. Tiles which are being classified are abandoned after finishing the current row, or the
+         * whole tile when every pixel is classified in one pass.
+         */
+        public void cancel() {
+            cancelled = true;
+            if (task.cancel(false) && !featuresClaimed.getAndSet(true)) {
+                features.release();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return whether the refinement has been stopped by a deadline, so that the result may be partially coarse
+         */
+        public boolean isRefinementStopped() {
+            return refinementStopped;
+        }
+
+        /**
+         * @return timings of tiles classified so far, in order of completion
+         */
+        public List<TileTiming> getTileTimings() {
+            synchronized (tileTimings) {
+                return new ArrayList<>(tileTimings);
+            }
+        }
+
+        /**
+         * @return number of pixels the classifier has been asked about so far
+         */
+        public long getClassifiedPixels() {
+            return classifiedPixels.sum();
+        }
+
+        private Mat assemble() {
+            final int width = image.width();
+            final int channels = image.channels();
+            final byte[] buffer = new byte[width * image.height() * channels];
+            for (Tile tile : tiles) {
+                for (int y = 0; y < tile.height; y++) {
+                    int offset = ((tile.y + y) * width + tile.x) * channels;
+                    for (int x = 0; x < tile.width; x++) {
+                        final byte value = tile.mask[y * tile.width + x];
+                        for (int channel = 0; channel < channels; channel++) {
+                            buffer[offset++] = value;
+                        }
+                    }
+                }
+            }
+            final Mat result = new Mat(image.size(), image.type());
+            result.put(0, 0, buffer);
+            return result;
+        }
+
+        private byte[] readFieldOfView(Mat fieldOfView) {
+            if (fieldOfView.width() != image.width() || fieldOfView.height() != image.height()) {
+                throw new IllegalArgumentException("Field of view mask size differs from image size");
+            }
+            final int channels = fieldOfView.channels();
+            final byte[] data = new byte[image.width() * image.height() * channels];
+            fieldOfView.get(0, 0, data);
+            final byte[] inside = new byte[image.width() * image.height()];
+            for (int pixel = 0; pixel < inside.length; pixel++) {
+                for (int channel = 0; channel < channels; channel++) {
+                    if (data[pixel * channels + channel] != 0) {
+                        inside[pixel] = 1;
+                        break;
+                    }
+                }
+            }
+            return inside;
+        }
+
+        private int countPixelsInside(Tile tile) {
+            if (fieldOfView == null) {
+                return tile.width * tile.height;
+            }
+            int count = 0;
+            for (int y = tile.y; y < tile.y + tile.height; y++) {
+                for (int x = tile.x; x < tile.x + tile.width; x++) {
+                    count += fieldOfView[y * image.width() + x];
+                }
+            }
+            return count;
+        }
+
+        private boolean isInside(int x, int y) {
+            return fieldOfView == null || fieldOfView[y * image.width() + x] != 0;
+        }
+
+        /**
+         * Classifies pixels of the grid and fills the cells between them.
+         */
+        private void classifyCoarse(Tile tile) {
+            final long start = System.nanoTime();
+            tile.mask = new byte[tile.width * tile.height];
+            if (coarseStep == 1) {
+                classifyDense(tile);
+                tile.nanos = System.nanoTime() - start;
+                return;
+            }
+            tile.columns = gridCoordinates(tile.width);
+            tile.rows = gridCoordinates(tile.height);
+            tile.grid = new byte[tile.columns.length * tile.rows.length];
+            if (tile.pixelsInside > 0) {
+                final FeatureMap tileFeatures = region(tile);
+                final double[] vector = new double[variantModel.getDimension()];
+                for (int row = 0; row < tile.rows.length; row++) {
+                    if (cancelled) {
+                        throw new CancellationException();
+                    }
+                    for (int column = 0; column < tile.columns.length; column++) {
+                        final int x = tile.columns[column];
+                        final int y = tile.rows[row];
+                        byte decision = OUTSIDE;
+                        if (isInside(tile.x + x, tile.y + y)) {
+                            decision = classify(tileFeatures, tile.x + x, tile.y + y, vector) ? VESSEL : BACKGROUND;
+                        }
+                        tile.grid[row * tile.columns.length + column] = decision;
+                    }
+                }
+                for (int row = 0; row < cells(tile.rows); row++) {
+                    for (int column = 0; column < cells(tile.columns); column++) {
+                        fillCell(tile, row, column);
+                    }
+                }
+            }
+            tile.nanos = System.nanoTime() - start;
+        }
+
+        /**
+         * Classifies all pixels of the tile inside the field of view at once, letting the classifier share work between
+         * adjacent pixels.
+         */
+        private void classifyDense(Tile tile) {
+            if (tile.pixelsInside == 0) {
+                return;
+            }
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            for (int y = 0; y < tile.height; y++) {
+                for (int x = 0; x < tile.width; x++) {
+                    if (isInside(tile.x + x, tile.y + y)) {
+                        tile.mask[y * tile.width + x] = 1;
+                    }
+                }
+            }
+            final FeatureMap tileFeatures = region(tile);
+            final long start = System.nanoTime();
+            classifier.classifyRegion(tileFeatures, new Rect(tile.x, tile.y, tile.width, tile.height), tile.mask);
+            Metrics.get().recordRegion(System.nanoTime() - start, tile.pixelsInside);
+            classifiedPixels.add(tile.pixelsInside);
+        }
+
+        /**
+         * Classifies every pixel of the cells whose corners disagree.
+         */
+        private void refine(Tile tile) {
+            final long start = System.nanoTime();
+            try {
+                refineCells(tile);
+            } finally {
+                tileTimings.add(new TileTiming(tile.x, tile.y, tile.width, tile.height,
+                                               tile.nanos + System.nanoTime() - start));
+            }
+            progress.incrementWorkCount(tile.pixelsInside);
+        }
+
+        private void refineCells(Tile tile) {
+            if (tile.pixelsInside > 0 && coarseStep > 1 && !refinementStopped) {
+                final boolean[] exact = new boolean[tile.width * tile.height];
+                for (int row = 0; row < tile.rows.length; row++) {
+                    for (int column = 0; column < tile.columns.length; column++) {
+                        exact[tile.rows[row] * tile.width + tile.columns[column]] = true;
+                    }
+                }
+                FeatureMap tileFeatures = null;
+                final double[] vector = new double[variantModel.getDimension()];
+                for (int row = 0; row < cells(tile.rows); row++) {
+                    for (int column = 0; column < cells(tile.columns); column++) {
+                        if (isUniform(tile, row, column)) {
+                            continue;
+                        }
+                        if (tileFeatures == null) {
+                            tileFeatures = region(tile);
+                        }
+                        final int bottom = tile.rows[farCorner(tile.rows, row)];
+                        final int right = tile.columns[farCorner(tile.columns, column)];
+                        for (int y = tile.rows[row]; y <= bottom; y++) {
+                            if (cancelled) {
+                                throw new CancellationException();
+                            }
+                            if (refinementStopped) {
+                                return;
+                            }
+                            for (int x = tile.columns[column]; x <= right; x++) {
+                                if (exact[y * tile.width + x] || !isInside(tile.x + x, tile.y + y)) {
+                                    continue;
+                                }
+                                exact[y * tile.width + x] = true;
+                                final boolean isVessel = classify(tileFeatures, tile.x + x, tile.y + y, vector);
+                                tile.mask[y * tile.width + x] = isVessel ? (byte) 255 : 0;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        private boolean classify(FeatureMap tileFeatures, int x, int y, double[] vector) {
+            final long start = System.nanoTime();
+            tileFeatures.getVector(x, y, vector);
+            final long extracted = System.nanoTime();
+            final boolean isVessel = classifier.isVessel(vector);
+            final Metrics metrics = Metrics.get();
+            metrics.recordNanos(Metrics.Stage.FEATURE_EXTRACTION, extracted - start);
+            metrics.recordIsVessel(System.nanoTime() - extracted);
+            classifiedPixels.increment();
+            return isVessel;
+        }
+
+        private FeatureMap region(Tile tile) {
+            final long start = System.nanoTime();
+            final FeatureMap tileFeatures = features.region(new Rect(tile.x, tile.y, tile.width, tile.height));
+            Metrics.get().record(Metrics.Stage.FEATURE_EXTRACTION, start);
+            return tileFeatures;
+        }
+
+        /**
+         * Fills pixels of a cell inside the field of view with the decision of the nearest corner of the cell.
+         */
+        private void fillCell(Tile tile, int row, int column) {
+            final int bottomRow = farCorner(tile.rows, row);
+            final int rightColumn = farCorner(tile.columns, column);
+            final int left = tile.columns[column];
+            final int right = tile.columns[rightColumn];
+            final int top = tile.rows[row];
+            final int bottom = tile.rows[bottomRow];
+            for (int y = top; y <= bottom; y++) {
+                final int cornerRow = y - top <= bottom - y ? row : bottomRow;
+                for (int x = left; x <= right; x++) {
+                    final int cornerColumn = x - left <= right - x ? column : rightColumn;
+                    final byte decision = tile.grid[cornerRow * tile.columns.length + cornerColumn];
+                    if (decision == VESSEL && isInside(tile.x + x, tile.y + y)) {
+                        tile.mask[y * tile.width + x] = (byte) 255;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return whether all corners of the cell are inside the field of view and have the same decision
+         */
+        private boolean isUniform(Tile tile, int row, int column) {
+            final int stride = tile.columns.length;
+            final int bottomRow = farCorner(tile.rows, row);
+            final int rightColumn = farCorner(tile.columns, column);
+            final byte corner = tile.grid[row * stride + column];
+            return corner != OUTSIDE
+                   && tile.grid[row * stride + rightColumn] == corner
+                   && tile.grid[bottomRow * stride + column] == corner
+                   && tile.grid[bottomRow * stride + rightColumn] == corner;
+        }
+
+        /**
+         * @return number of cells between coordinates of the grid. A tile one pixel wide or high has a single grid
+         *         coordinate in that direction, which makes cells of zero thickness with both corners on it
+         */
+        private int cells(int[] coordinates) {
+            return Math.max(1, coordinates.length - 1);
+        }
+
+        /**
+         * @return index of the coordinate ending the cell starting at given index
+         */
+        private int farCorner(int[] coordinates, int cell) {
+            return Math.min(cell + 1, coordinates.length - 1);
+        }
+
+        /**
+         * @return coordinates of the grid within a tile of given length, always including both ends
+         */
+        private int[] gridCoordinates(int length) {
+            final int count = (length - 1) / coarseStep + ((length - 1) % coarseStep == 0 ? 1 : 2);
+            final int[] coordinates = new int[count];
+            for (int i = 0; i < count - 1; i++) {
+                coordinates[i] = i * coarseStep;
+            }
+            coordinates[count - 1] = length - 1;
+            return coordinates;
+        }
+
+        /**
+         * Classifies the grids of all tiles first, then refines them, so that the whole coarse result is available as
+         * soon as possible.
+         */
+        private class Passes extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                if (featuresClaimed.getAndSet(true)) {
+                    return;
+                }
+                try {
+                    new TileRange(0, tiles.length, false).invoke();
+                    new TileRange(0, tiles.length, true).invoke();
+                } finally {
+                    features.release();
+                }
+            }
+        }
+
+        private class TileRange extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final int from;
+            private final int to;
+            private final boolean refinement;
+
+            private TileRange(int from, int to, boolean refinement) {
+                this.from = from;
+                this.to = to;
+                this.refinement = refinement;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from == 1) {
+                    if (refinement) {
+                        refine(tiles[from]);
+                    } else {
+                        classifyCoarse(tiles[from]);
+                    }
+                } else if (to - from > 1) {
+                    final int middle = (from + to) >>> 1;
+                    invokeAll(new TileRange(from, middle, refinement), new TileRange(middle, to, refinement));
+                }
+            }
+        }
+    }
+
+    /**
+     * Time spent on classifying one tile.
+     */
+    public static class TileTiming {
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+        private final long nanos;
+
+        public TileTiming(int x, int y, int width, int height, long nanos) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.nanos = nanos;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Tile (%d, %d) %dx%d: %.1f ms", x, y, width, height, nanos / 1e6);
+        }
+    }
+
+    private static class Tile {
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+        private int pixelsInside;
+        private byte[] mask;
+        private int[] columns;
+        private int[] rows;
+        private byte[] grid;
+        private long nanos;
+
+        private Tile(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Keeps a trained classifier in memory and classifies images sent over HTTP, so that loading of native libraries,
+ * training and warm-up are paid once instead of for every image. The server listens only on the loopback interface.
+ * <p>
+ * {@code POST /classify} classifies an image and responds with the result mask encoded as PNG. The image is given
+ * either as a path in the {@code image} query parameter or as the contents of an image file in the request body.
+ * Optional {@code mask} parameter is a path to the field of view mask, optional {@code manual} parameter is a path to
+ * the manual segmentation, in which case statistics of the result are returned in the {@code X-Statistics} header.
+ * When too many images are already being classified, the server responds with 503 instead of queueing the request.
+ * <p>
+ * {@code POST /samples} adds a training case, e.g. a correction from a grader, without interrupting classification.
+ * Parameters are {@code image}, a path to an image, {@code x} and {@code y}, coordinates of the pixel, and
+ * {@code vessel}, whether the pixel is a vessel. Images submitted after the response are classified with the new
+ * training case.
+ * <p>
+ * {@code GET /health} responds with 200 once the server is ready.
+ */
+public class ClassificationServer {
+
+    private static final int DEFAULT_PORT = 8080;
+    /**
+     * How many images may be classified at once. They share the worker threads of one engine.
+     */
+    private static final int MAX_CONCURRENT_JOBS = 4;
+
+    private final Application app;
+    private final ClassificationEngine engine;
+    private final UpdatableKNNClassifier classifier;
+    private final Semaphore admission = new Semaphore(MAX_CONCURRENT_JOBS);
+    private final ExecutorService handlers = Executors.newFixedThreadPool(MAX_CONCURRENT_JOBS + 1);
+    private final HttpServer server;
+
+    public ClassificationServer(Application app, UpdatableKNNClassifier classifier, int port) throws IOException {
+        this.app = app;
+        this.classifier = classifier;
+        this.engine = app.createEngine(classifier);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/classify", this::handleClassify);
+        server.createContext("/samples", this::handleSamples);
+        server.createContext("/health", exchange -> respond(exchange, 200, "OK"));
+        server.setExecutor(handlers);
+        Metrics.get().registerGauge("server.jobsInProgress",
+                                    () -> MAX_CONCURRENT_JOBS - admission.availablePermits());
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Proper arguments: <Training dir containing 'images', 'manuals' and 'masks' subdirs> [port]");
+            System.exit(1);
+        }
+        final int port = args.length == 2 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        final Application app = new Application();
+        final UpdatableKNNClassifier classifier = app.createUpdatableClassifier(app.trainModel(args[0]));
+        final ClassificationServer server = new ClassificationServer(app, classifier, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        server.start();
+        System.out.println("Listening on port " + port);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waits a moment for the ones in progress and releases worker threads.
+     */
+    public void stop() {
+        server.stop(1);
+        handlers.shutdown();
+        engine.shutdown();
+        classifier.release();
+    }
+
+    private void handleClassify(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "Only POST is supported");
+                return;
+            }
+            if (!admission.tryAcquire()) {
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                respond(exchange, 503, "Too many images are being classified");
+                return;
+            }
+            try {
+                classify(exchange);
+            } finally {
+                admission.release();
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            respond(exchange, 500, String.valueOf(e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleSamples(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "Only POST is supported");
+                return;
+            }
+            final Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (!parameters.containsKey("image") || !parameters.containsKey("x") || !parameters.containsKey("y")
+                || !parameters.containsKey("vessel")) {
+                respond(exchange, 400, "Parameters image, x, y and vessel are required");
+                return;
+            }
+            final Mat image = app.loadImage(parameters.get("image"));
+            try {
+                if (image.empty()) {
+                    respond(exchange, 400, "Could not read the image");
+                    return;
+                }
+                final int x;
+                final int y;
+                try {
+                    x = Integer.parseInt(parameters.get("x"));
+                    y = Integer.parseInt(parameters.get("y"));
+                } catch (NumberFormatException e) {
+                    respond(exchange, 400, "Invalid coordinates");
+                    return;
+                }
+                if (x < 0 || y < 0 || x >= image.width() || y >= image.height()) {
+                    respond(exchange, 400, "Pixel outside of the image");
+                    return;
+                }
+                final long version = classifier.addSample(app.computeVector(image, x, y),
+                                                          Boolean.parseBoolean(parameters.get("vessel")));
+                respond(exchange, 200, "Training set version " + version);
+            } finally {
+                image.release();
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            respond(exchange, 500, String.valueOf(e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void classify(HttpExchange exchange) throws IOException {
+        final Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+        final String imagePath = parameters.get("image");
+        final Mat image;
+        try (InputStream body = exchange.getRequestBody()) {
+            image = imagePath != null ? app.loadImage(imagePath) : app.decodeImage(ByteStreams.toByteArray(body));
+        }
+        final Mat mask = parameters.containsKey("mask") ? Imgcodecs.imread(parameters.get("mask")) : null;
+        final Mat manual = parameters.containsKey("manual") ? Imgcodecs.imread(parameters.get("manual")) : null;
+        Mat result = null;
+        try {
+            if (image.empty()) {
+                respond(exchange, 400, "Could not read the image");
+                return;
+            }
+            if (mask != null && mask.empty()) {
+                respond(exchange, 400, "Could not read the mask");
+                return;
+            }
+            if (manual != null && manual.empty()) {
+                respond(exchange, 400, "Could not read the manual");
+                return;
+            }
+            if (mask != null && !sameSize(image, mask)) {
+                respond(exchange, 400, "Mask size differs from image size");
+                return;
+            }
+            if (manual != null && !sameSize(image, manual)) {
+                respond(exchange, 400, "Manual size differs from image size");
+                return;
+            }
+            final String name = imagePath != null ? imagePath : "image from " + exchange.getRemoteAddress();
+            result = app.classify(engine, name, image, mask);
+
+            if (manual != null) {
+                final String statistics = StatisticUtils.formatStatistics(
+                        StatisticUtils.computeConfusionMatrix(manual, result));
+                exchange.getResponseHeaders().add("X-Statistics", statistics.trim().replace("\n", "; "));
+            }
+            final MatOfByte encoded = new MatOfByte();
+            Imgcodecs.imencode(".png", result, encoded);
+            final byte[] png = encoded.toArray();
+            encoded.release();
+            exchange.getResponseHeaders().add("Content-Type", "image/png");
+            respond(exchange, 200, png);
+        } finally {
+            // Native memory of the images is freed now rather than whenever they are finalized
+            for (Mat mat : new Mat[]{image, mask, manual, result}) {
+                if (mat != null) {
+                    mat.release();
+                }
+            }
+        }
+    }
+
+    private static boolean sameSize(Mat image, Mat other) {
+        return image.width() == other.width() && image.height() == other.height();
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        final Map<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            final int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"),
+                               URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        respond(exchange, status, (message + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+}
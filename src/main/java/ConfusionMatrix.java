@@ -27,6 +27,47 @@ public class ConfusionMatrix {
         return falseNegativeAmount;
     }
 
+    public int getTotalAmount() {
+        return truePositiveAmount + trueNegativeAmount + falsePositiveAmount + falseNegativeAmount;
+    }
+
+    /**
+     * @return fraction of misclassified pixels, which for binary masks equals their mean squared error
+     */
+    public double getMeanSquaredError() {
+        return (double) (falsePositiveAmount + falseNegativeAmount) / getTotalAmount();
+    }
+
+    /**
+     * @return fraction of vessel pixels classified as vessels
+     */
+    public double getSensitivity() {
+        return (double) truePositiveAmount / (truePositiveAmount + falseNegativeAmount);
+    }
+
+    /**
+     * @return fraction of background pixels classified as background
+     */
+    public double getSpecificity() {
+        return (double) trueNegativeAmount / (trueNegativeAmount + falsePositiveAmount);
+    }
+
+    public double getAccuracy() {
+        return (double) (truePositiveAmount + trueNegativeAmount) / getTotalAmount();
+    }
+
+    public double getDiceCoefficient() {
+        return 2.0 * truePositiveAmount / (2.0 * truePositiveAmount + falsePositiveAmount + falseNegativeAmount);
+    }
+
+    public double getMatthewsCorrelationCoefficient() {
+        final double tp = truePositiveAmount;
+        final double tn = trueNegativeAmount;
+        final double fp = falsePositiveAmount;
+        final double fn = falseNegativeAmount;
+        return (tp * tn - fp * fn) / Math.sqrt((tp + fp) * (tp + fn) * (tn + fp) * (tn + fn));
+    }
+
     @Override
     public String toString() {
         return  "TP " + truePositiveAmount + '\n' +
@@ -0,0 +1,81 @@
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Stack of maps of differential features of green channel computed once for the whole image: intensity, maximum over
+ * scales of gradient magnitude and maximum over scales of the larger Hessian eigenvalue. Vector of each pixel is then
+ * read from the maps in constant time.
+ * <p>
+ * Value of each map at a pixel depends only on pixels not farther than {@link #SUPPORT}, so as long as the surroundings
+ * are at least that large, vectors are the same as the ones computed from the cut surroundings of the pixel.
+ */
+public class DifferentialFeatureMap implements FeatureMap {
+
+    public static final int NUMBER_OF_FEATURES = 3;
+    private static final int START_SCALE = 1;
+    private static final int END_SCALE = 4;
+    private static final int SCALE_STEP = 1;
+    /**
+     * How many pixels on each side of a pixel influence its features.
+     */
+    public static final int SUPPORT = ImageUtils.scaleSupport(END_SCALE);
+
+    private final float[][] maps;
+    private final int stride;
+    private final int border;
+
+    /**
+     * @param image BGR image
+     * @param size  how many pixels to take from each side of pixel
+     */
+    public DifferentialFeatureMap(Mat image, int size) {
+        final Mat green = ImageUtils.extractGreen(image);
+        // Black border as in the cut surroundings of pixels near image edges
+        this.border = Math.max(size, SUPPORT);
+        final Mat padded = ImageUtils.addBlackBorder(green, border);
+        green.release();
+        this.stride = padded.width();
+        this.maps = computeMaps(padded);
+        padded.release();
+    }
+
+    /**
+     * Computes vector of the central pixel of surroundings.
+     *
+     * @param surrounding BGR surroundings of a pixel, of odd width and height
+     * @param vector      array receiving {@link #NUMBER_OF_FEATURES} attributes
+     */
+    public static void getCentralVector(Mat surrounding, double[] vector) {
+        final Mat green = ImageUtils.extractGreen(surrounding);
+        final float[][] maps = computeMaps(green);
+        final int center = (surrounding.height() / 2) * surrounding.width() + surrounding.width() / 2;
+        green.release();
+        for (int feature = 0; feature < NUMBER_OF_FEATURES; feature++) {
+            vector[feature] = maps[feature][center];
+        }
+    }
+
+    @Override
+    public void getVector(int x, int y, double[] vector) {
+        final int pixel = (y + border) * stride + x + border;
+        for (int feature = 0; feature < NUMBER_OF_FEATURES; feature++) {
+            vector[feature] = maps[feature][pixel];
+        }
+    }
+
+    private static float[][] computeMaps(Mat green) {
+        final Mat intensity = new Mat();
+        green.convertTo(intensity, CvType.CV_32F);
+        final Mat[] features = {
+                intensity,
+                ImageUtils.gradientMagnitudeMaximumOverScales(green, START_SCALE, END_SCALE, SCALE_STEP),
+                ImageUtils.largestEigenvalueMaximumOverScales(green, START_SCALE, END_SCALE, SCALE_STEP)
+        };
+        final float[][] maps = new float[NUMBER_OF_FEATURES][green.width() * green.height()];
+        for (int feature = 0; feature < NUMBER_OF_FEATURES; feature++) {
+            features[feature].get(0, 0, maps[feature]);
+            features[feature].release();
+        }
+        return maps;
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Squared euclidean distances between a query and rows of a row-major training matrix. Only the ranking of the
+ * training cases matters for finding neighbours, so the square root is never taken.
+ * <p>
+ * Distances are abandoned early: summing stops as soon as the partial sum exceeds the distance of the farthest kept
+ * neighbour, as such training case cannot become a neighbour anymore.
+ */
+public final class DistanceKernel {
+
+    private DistanceKernel() {
+    }
+
+    /**
+     * Computes squared distance, stopping once it exceeds the limit.
+     *
+     * @param query     vector to compute the distance from
+     * @param matrix    row-major matrix containing the other vector
+     * @param offset    index of the first attribute of the other vector
+     * @param dimension number of attributes
+     * @param limit     distance above which the exact value is not needed
+     * @return squared distance if it does not exceed the limit, otherwise any value greater than the limit
+     */
+    public static double squaredDistance(double[] query, double[] matrix, int offset, int dimension, double limit) {
+        double sum = 0;
+        int attr = 0;
+        // Four attributes at a time, independent sums let the processor overlap the operations
+        for (; attr + 4 <= dimension; attr += 4) {
+            final double d0 = query[attr] - matrix[offset + attr];
+            final double d1 = query[attr + 1] - matrix[offset + attr + 1];
+            final double d2 = query[attr + 2] - matrix[offset + attr + 2];
+            final double d3 = query[attr + 3] - matrix[offset + attr + 3];
+            sum += (d0 * d0 + d1 * d1) + (d2 * d2 + d3 * d3);
+            if (sum > limit) {
+                return sum;
+            }
+        }
+        for (; attr < dimension; attr++) {
+            final double difference = query[attr] - matrix[offset + attr];
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    /**
+     * Offers rows of the matrix from the given range to the heap of neighbours. Rows farther than the farthest kept
+     * neighbour are skipped, as are training cases already in the heap.
+     *
+     * @param query      normalized vector to find neighbours of
+     * @param matrix     row-major matrix of normalized training cases
+     * @param dimension  number of attributes
+     * @param from       first row to compare, inclusive
+     * @param to         last row to compare, exclusive
+     * @param indices    training case indices of the rows, or null if row numbers are the indices
+     * @param neighbours heap receiving training case indices of the neighbours
+     */
+    public static void scan(double[] query, double[] matrix, int dimension, int from, int to, int[] indices,
+                            NeighbourHeap neighbours) {
+        for (int row = from; row < to; row++) {
+            final double worst = neighbours.worstDistance();
+            final double distance = squaredDistance(query, matrix, row * dimension, dimension, worst);
+            final int index = indices != null ? indices[row] : row;
+            if (distance <= worst && !neighbours.contains(index)) {
+                neighbours.offer(index, distance);
+            }
+        }
+    }
+}
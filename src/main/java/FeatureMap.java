@@ -0,0 +1,33 @@
+import org.opencv.core.Rect;
+
+/**
+ * Gives access to vectors of attributes of all pixels of one image.
+ */
+public interface FeatureMap {
+
+    /**
+     * Computes vector of attributes describing surroundings of a pixel.
+     *
+     * @param x      horizontal position of pixel
+     * @param y      vertical position of pixel
+     * @param vector array receiving the attributes, as long as the dimension of the variant model
+     */
+    void getVector(int x, int y, double[] vector);
+
+    /**
+     * Prepares the map for reading vectors of pixels inside given region only. Implementations may precompute data
+     * shared by neighbouring pixels here.
+     *
+     * @param roi region of interest
+     * @return map valid at least inside the region
+     */
+    default FeatureMap region(Rect roi) {
+        return this;
+    }
+
+    /**
+     * Frees native memory held by the map. The map must not be used afterwards.
+     */
+    default void release() {
+    }
+}
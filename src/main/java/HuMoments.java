@@ -0,0 +1,139 @@
+import org.opencv.core.Mat;
+
+/**
+ * Computes the seven Hu invariants from raw spatial moments, the same way OpenCV does.
+ */
+public class HuMoments {
+
+    public static final int NUMBER_OF_INVARIANTS = 7;
+    private static final int GREEN = 1;
+
+    /**
+     * Per-thread buffers receiving pixels of surroundings, grown when needed.
+     */
+    private static final ThreadLocal<byte[]> PIXELS = ThreadLocal.withInitial(() -> new byte[0]);
+
+    /**
+     * Computes Hu invariants of green channel of an image, like {@link org.opencv.imgproc.Imgproc#HuMoments} of
+     * {@link org.opencv.imgproc.Imgproc#moments} of the channel, reading the pixels with one call and without
+     * allocating.
+     *
+     * @param image BGR image, 8 bits per channel, e.g. surroundings of a pixel
+     * @param hu    array receiving the invariants, at least 7 long
+     */
+    public static void fromGreen(Mat image, double[] hu) {
+        final int length = image.rows() * image.cols() * image.channels();
+        byte[] pixels = PIXELS.get();
+        if (pixels.length < length) {
+            pixels = new byte[length];
+            PIXELS.set(pixels);
+        }
+        image.get(0, 0, pixels);
+        fromPixels(pixels, image.cols(), image.rows(), image.channels(), GREEN, hu);
+    }
+
+    /**
+     * Computes Hu invariants of one channel of interleaved 8-bit pixels.
+     *
+     * @param pixels   pixels row by row, channels of each pixel next to each other
+     * @param width    number of pixels in a row
+     * @param height   number of rows
+     * @param channels number of channels of each pixel
+     * @param channel  channel to compute the invariants of
+     * @param hu       array receiving the invariants, at least 7 long
+     */
+    public static void fromPixels(byte[] pixels, int width, int height, int channels, int channel, double[] hu) {
+        long m00 = 0, m10 = 0, m01 = 0, m20 = 0, m11 = 0, m02 = 0, m30 = 0, m21 = 0, m12 = 0, m03 = 0;
+        for (int y = 0; y < height; y++) {
+            // Sums of the row, x^k * intensity, the same as OpenCV accumulates them
+            long x0 = 0, x1 = 0, x2 = 0, x3 = 0;
+            int pixel = y * width * channels + channel;
+            for (int x = 0; x < width; x++, pixel += channels) {
+                final long intensity = pixels[pixel] & 0xff;
+                final long xIntensity = x * intensity;
+                final long x2Intensity = x * xIntensity;
+                x0 += intensity;
+                x1 += xIntensity;
+                x2 += x2Intensity;
+                x3 += x * x2Intensity;
+            }
+            final long y2 = (long) y * y;
+            m00 += x0;
+            m10 += x1;
+            m01 += y * x0;
+            m20 += x2;
+            m11 += y * x1;
+            m02 += y2 * x0;
+            m30 += x3;
+            m21 += y * x2;
+            m12 += y2 * x1;
+            m03 += y2 * y * x0;
+        }
+        fromRawMoments(m00, m10, m01, m20, m11, m02, m30, m21, m12, m03, hu);
+    }
+
+    /**
+     * Computes Hu invariants from raw spatial moments.
+     *
+     * @param m00 raw moment of order 0
+     * @param m10 raw moment m10
+     * @param m01 raw moment m01
+     * @param m20 raw moment m20
+     * @param m11 raw moment m11
+     * @param m02 raw moment m02
+     * @param m30 raw moment m30
+     * @param m21 raw moment m21
+     * @param m12 raw moment m12
+     * @param m03 raw moment m03
+     * @param hu  array receiving the invariants, at least 7 long
+     */
+    public static void fromRawMoments(double m00, double m10, double m01, double m20, double m11, double m02,
+                                      double m30, double m21, double m12, double m03, double[] hu) {
+        double cx = 0;
+        double cy = 0;
+        double invM00 = 0;
+        if (Math.abs(m00) > Math.ulp(1.0)) {
+            invM00 = 1 / m00;
+            cx = m10 * invM00;
+            cy = m01 * invM00;
+        }
+        // Central moments
+        final double mu20 = m20 - m10 * cx;
+        final double mu11 = m11 - m10 * cy;
+        final double mu02 = m02 - m01 * cy;
+        final double mu30 = m30 - cx * (3 * mu20 + cx * m10);
+        final double mu21 = m21 - cx * (2 * mu11 + cx * m01) - cy * mu20;
+        final double mu12 = m12 - cy * (2 * mu11 + cy * m10) - cx * mu02;
+        final double mu03 = m03 - cy * (3 * mu02 + cy * m01);
+
+        // Normalized central moments
+        final double s2 = invM00 * invM00;
+        final double s3 = s2 * Math.sqrt(Math.abs(invM00));
+        final double nu20 = mu20 * s2;
+        final double nu11 = mu11 * s2;
+        final double nu02 = mu02 * s2;
+        final double nu30 = mu30 * s3;
+        final double nu21 = mu21 * s3;
+        final double nu12 = mu12 * s3;
+        final double nu03 = mu03 * s3;
+
+        double t0 = nu30 + nu12;
+        double t1 = nu21 + nu03;
+        double q0 = t0 * t0;
+        double q1 = t1 * t1;
+        final double n4 = 4 * nu11;
+        final double s = nu20 + nu02;
+        final double d = nu20 - nu02;
+        hu[0] = s;
+        hu[1] = d * d + n4 * nu11;
+        hu[3] = q0 + q1;
+        hu[5] = d * (q0 - q1) + n4 * t0 * t1;
+        t0 *= q0 - 3 * q1;
+        t1 *= 3 * q0 - q1;
+        q0 = nu30 - 3 * nu12;
+        q1 = 3 * nu21 - nu03;
+        hu[2] = q0 * q0 + q1 * q1;
+        hu[4] = q0 * t0 + q1 * t1;
+        hu[6] = q1 * t0 - q0 * t1;
+    }
+}
@@ -0,0 +1,144 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.Arrays;
+
+/**
+ * Computes Hu moments of green channel surroundings of every pixel using summed-area tables of raw spatial moments.
+ * Once tables covering a region are built, vector of each pixel inside it is computed in constant time.
+ */
+public class HuMomentsFeatureMap implements FeatureMap {
+
+    private static final int NUMBER_OF_MOMENTS = 10;
+
+    private final byte[] green;
+    private final int width;
+    private final int height;
+    private final int size;
+
+    /**
+     * @param image BGR image
+     * @param size  how many pixels to take from each side of pixel
+     */
+    public HuMomentsFeatureMap(Mat image, int size) {
+        this(ImageUtils.getGreenBytes(image), image.width(), image.height(), size);
+    }
+
+    /**
+     * @param green  green channel intensities, row by row
+     * @param width  width of the image
+     * @param height height of the image
+     * @param size   how many pixels to take from each side of pixel
+     */
+    public HuMomentsFeatureMap(byte[] green, int width, int height, int size) {
+        this.green = green;
+        this.width = width;
+        this.height = height;
+        this.size = size;
+    }
+
+    @Override
+    public void getVector(int x, int y, double[] vector) {
+        region(new Rect(x, y, 1, 1)).getVector(x, y, vector);
+    }
+
+    @Override
+    public FeatureMap region(Rect roi) {
+        return new Region(roi);
+    }
+
+    /**
+     * Summed-area tables of raw moments m00, m10, m01, m20, m11, m02, m30, m21, m12, m03 of the part of image covered
+     * by surroundings of pixels in a region. Coordinates are relative to the top left corner of that part, so sums
+     * stay small. All ten sums of one table cell are stored next to each other.
+     */
+    private class Region implements FeatureMap {
+        private final int left;
+        private final int top;
+        private final int stride;
+        private final long[] tables;
+
+        private Region(Rect roi) {
+            this.left = Math.max(roi.x - size, 0);
+            this.top = Math.max(roi.y - size, 0);
+            final int right = Math.min(roi.x + roi.width + size, width);
+            final int bottom = Math.min(roi.y + roi.height + size, height);
+            this.stride = right - left + 1;
+            this.tables = new long[stride * (bottom - top + 1) * NUMBER_OF_MOMENTS];
+
+            final long[] rowSums = new long[NUMBER_OF_MOMENTS];
+            for (int v = 0; v < bottom - top; v++) {
+                Arrays.fill(rowSums, 0);
+                final long v2 = (long) v * v;
+                final long v3 = v2 * v;
+                int pixel = (top + v) * width + left;
+                int above = (v * stride + 1) * NUMBER_OF_MOMENTS;
+                int cell = above + stride * NUMBER_OF_MOMENTS;
+                for (int u = 0; u < right - left; u++) {
+                    final long intensity = green[pixel++] & 0xff;
+                    if (intensity != 0) {
+                        final long u2 = (long) u * u;
+                        rowSums[0] += intensity;
+                        rowSums[1] += u * intensity;
+                        rowSums[2] += v * intensity;
+                        rowSums[3] += u2 * intensity;
+                        rowSums[4] += u * v * intensity;
+                        rowSums[5] += v2 * intensity;
+                        rowSums[6] += u2 * u * intensity;
+                        rowSums[7] += u2 * v * intensity;
+                        rowSums[8] += u * v2 * intensity;
+                        rowSums[9] += v3 * intensity;
+                    }
+                    for (int k = 0; k < NUMBER_OF_MOMENTS; k++) {
+                        tables[cell + k] = tables[above + k] + rowSums[k];
+                    }
+                    above += NUMBER_OF_MOMENTS;
+                    cell += NUMBER_OF_MOMENTS;
+                }
+            }
+        }
+
+        @Override
+        public void getVector(int x, int y, double[] vector) {
+            // Surroundings clipped to image borders, black pixels outside do not contribute to moments
+            final int u0 = Math.max(x - size, 0) - left;
+            final int v0 = Math.max(y - size, 0) - top;
+            final int u1 = Math.min(x + size + 1, width) - left;
+            final int v1 = Math.min(y + size + 1, height) - top;
+            final int topLeft = (v0 * stride + u0) * NUMBER_OF_MOMENTS;
+            final int topRight = (v0 * stride + u1) * NUMBER_OF_MOMENTS;
+            final int bottomLeft = (v1 * stride + u0) * NUMBER_OF_MOMENTS;
+            final int bottomRight = (v1 * stride + u1) * NUMBER_OF_MOMENTS;
+            final long s00 = sum(0, topLeft, topRight, bottomLeft, bottomRight);
+            final long s10 = sum(1, topLeft, topRight, bottomLeft, bottomRight);
+            final long s01 = sum(2, topLeft, topRight, bottomLeft, bottomRight);
+            final long s20 = sum(3, topLeft, topRight, bottomLeft, bottomRight);
+            final long s11 = sum(4, topLeft, topRight, bottomLeft, bottomRight);
+            final long s02 = sum(5, topLeft, topRight, bottomLeft, bottomRight);
+            final long s30 = sum(6, topLeft, topRight, bottomLeft, bottomRight);
+            final long s21 = sum(7, topLeft, topRight, bottomLeft, bottomRight);
+            final long s12 = sum(8, topLeft, topRight, bottomLeft, bottomRight);
+            final long s03 = sum(9, topLeft, topRight, bottomLeft, bottomRight);
+
+            // Shift moments to coordinates of surroundings, whose top left corner may lie outside the image
+            final long a = x - size - left;
+            final long b = y - size - top;
+            final long m00 = s00;
+            final long m10 = s10 - a * s00;
+            final long m01 = s01 - b * s00;
+            final long m20 = s20 - 2 * a * s10 + a * a * s00;
+            final long m11 = s11 - a * s01 - b * s10 + a * b * s00;
+            final long m02 = s02 - 2 * b * s01 + b * b * s00;
+            final long m30 = s30 - 3 * a * s20 + 3 * a * a * s10 - a * a * a * s00;
+            final long m21 = s21 - b * s20 - 2 * a * s11 + 2 * a * b * s10 + a * a * s01 - a * a * b * s00;
+            final long m12 = s12 - a * s02 - 2 * b * s11 + 2 * a * b * s01 + b * b * s10 - a * b * b * s00;
+            final long m03 = s03 - 3 * b * s02 + 3 * b * b * s01 - b * b * b * s00;
+            HuMoments.fromRawMoments(m00, m10, m01, m20, m11, m02, m30, m21, m12, m03, vector);
+        }
+
+        private long sum(int moment, int topLeft, int topRight, int bottomLeft, int bottomRight) {
+            return tables[bottomRight + moment] - tables[topRight + moment] - tables[bottomLeft + moment]
+                   + tables[topLeft + moment];
+        }
+    }
+}
@@ -1,4 +1,5 @@
 import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
 import org.opencv.imgcodecs.Imgcodecs;
 
 import java.util.ArrayList;
@@ -27,11 +28,40 @@ public class ImageLoader extends ImageProcessor {
     /**
      * Applies processing on the full image after loading it from disk
      * @param path path to the image file
-     * @return loaded and processed OpenCV Mat representing the image
+     * @return loaded and processed OpenCV Mat representing the image, empty if the file could not be read
      */
     public Mat loadImage(String path) {
+        long start = System.nanoTime();
         Mat image = Imgcodecs.imread(path);
-        image = applyProcessors(image);
-        return image;
+        Metrics.get().record(Metrics.Stage.LOAD, start);
+        if (image.empty()) {
+            return image;
+        }
+        return preprocess(image);
+    }
+
+    /**
+     * Applies processing on the full image after decoding it from memory
+     * @param encoded contents of the image file
+     * @return decoded and processed OpenCV Mat representing the image, empty if the data could not be decoded
+     */
+    public Mat loadImage(byte[] encoded) {
+        long start = System.nanoTime();
+        Mat image = Imgcodecs.imdecode(new MatOfByte(encoded), Imgcodecs.IMREAD_COLOR);
+        Metrics.get().record(Metrics.Stage.LOAD, start);
+        if (image.empty()) {
+            return image;
+        }
+        return preprocess(image);
+    }
+
+    private Mat preprocess(Mat image) {
+        long start = System.nanoTime();
+        Mat processed = applyProcessors(image);
+        if (processed != image) {
+            image.release();
+        }
+        Metrics.get().record(Metrics.Stage.PREPROCESS, start);
+        return processed;
     }
 }
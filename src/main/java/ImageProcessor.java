@@ -26,12 +26,18 @@ public class ImageProcessor {
     }
 
     /**
-     * Applies postprocessing functions to the image. The parameter is modified by reference.
+     * Applies postprocessing functions to the image. The parameter is modified by reference. Intermediate results are
+     * released, the parameter is not.
      * @param image image to process
      */
     protected Mat applyProcessors(Mat image) {
+        final Mat original = image;
         for (Function<Mat, Mat> processor : processors) {
-            image = processor.apply(image);
+            final Mat processed = processor.apply(image);
+            if (processed != image && image != original) {
+                image.release();
+            }
+            image = processed;
         }
         return image;
     }
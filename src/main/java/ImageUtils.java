@@ -1,13 +1,14 @@
+import com.google.common.io.Files;
+
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Path;
+import java.io.UncheckedIOException;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 
 import org.opencv.core.*;
@@ -109,6 +110,9 @@ public class ImageUtils {
         Mat result = new Mat();
         channels.set(1, shadeCorrected);
         Core.merge(channels, result);
+        for (Mat mat : Arrays.asList(green, open, median, gaussian, shadeCorrected, channels.get(0), channels.get(2))) {
+            mat.release();
+        }
         return result;
     }
     
@@ -119,9 +123,69 @@ public class ImageUtils {
         Imgproc.equalizeHist(green, green);
         Mat equalized = new Mat();
         Core.merge(channels, equalized);
+        channels.forEach(Mat::release);
         return equalized;
     }
 
+    /**
+     * Adds counts of green channel intensities of image to histogram, so that histogram of a large image can be
+     * collected part by part.
+     *
+     * @param image     BGR image, 8 bits per channel
+     * @param histogram 256 counts receiving the intensities
+     */
+    public static void addGreenHistogram(Mat image, long[] histogram) {
+        final byte[] pixels = new byte[image.width() * image.height() * 3];
+        image.get(0, 0, pixels);
+        for (int i = 1; i < pixels.length; i += 3) {
+            histogram[pixels[i] & 0xff]++;
+        }
+    }
+
+    /**
+     * Computes lookup table equalizing histogram, the same as {@link Imgproc#equalizeHist} applies.
+     *
+     * @param histogram 256 counts of intensities
+     * @return table of 256 new intensities
+     */
+    public static byte[] equalizationTable(long[] histogram) {
+        final byte[] table = new byte[256];
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        int first = 0;
+        while (first < 255 && histogram[first] == 0) {
+            first++;
+        }
+        if (histogram[first] == total) {
+            Arrays.fill(table, (byte) first);
+            return table;
+        }
+        final float scale = 255f / (total - histogram[first]);
+        long sum = 0;
+        for (int i = first + 1; i < 256; i++) {
+            sum += histogram[i];
+            table[i] = (byte) Math.min(255, Math.rint(sum * scale));
+        }
+        return table;
+    }
+
+    /**
+     * Replaces green channel intensities of image with values from lookup table, in place.
+     *
+     * @param image BGR image, 8 bits per channel
+     * @param table 256 new intensities
+     */
+    public static void applyToGreen(Mat image, byte[] table) {
+        final byte[] pixels = new byte[image.width() * image.height() * 3];
+        image.get(0, 0, pixels);
+        for (int i = 1; i < pixels.length; i += 3) {
+            pixels[i] = table[pixels[i] & 0xff];
+        }
+        image.put(0, 0, pixels);
+    }
+
     public static Mat equalizeHistogram(Mat image) {
         List<Mat> channels = new ArrayList<>();
         Mat img_hist_equalized = new Mat();
@@ -140,9 +204,33 @@ public class ImageUtils {
      * @return single channel image with green channel from input image as intensity
      */
     public static Mat extractGreen(Mat image) {
-        List<Mat> bgr = new ArrayList<>();
-        Core.split(image, bgr);
-        return bgr.get(1);
+        return extractGreen(image, new Mat());
+    }
+
+    /**
+     * Extract green channel from image into given Mat, e.g. one from {@link MatPool}.
+     *
+     * @param image       BGR image
+     * @param destination Mat receiving the channel
+     * @return the destination
+     */
+    public static Mat extractGreen(Mat image, Mat destination) {
+        Core.extractChannel(image, destination, 1);
+        return destination;
+    }
+
+    /**
+     * Reads green channel of image into an array.
+     *
+     * @param image BGR image, 8 bits per channel
+     * @return green channel intensities, row by row
+     */
+    public static byte[] getGreenBytes(Mat image) {
+        final Mat green = extractGreen(image);
+        final byte[] data = new byte[image.width() * image.height()];
+        green.get(0, 0, data);
+        green.release();
+        return data;
     }
 
     /**
@@ -202,6 +290,21 @@ public class ImageUtils {
      * @return new image of size NxN, where N = 2*size+1
      */
     public static Mat getSurroundingPixels(Mat image, int x, int y, int size) {
+        return getSurroundingPixels(image, x, y, size, null);
+    }
+
+    /**
+     * Copies square surroundings of pixel into given Mat. Surroundings outside image borders are replaced with black.
+     *
+     * @param image       input image
+     * @param x           horizontal position of pixel, should be inside image borders
+     * @param y           vertical position of pixel, should be inside image borders
+     * @param size        how many pixels to take from each side, should be nonnegative
+     * @param destination Mat of size NxN and type of the image, where N = 2*size+1, e.g. from {@link MatPool}, or
+     *                    null to return a view of the image when the surroundings lie inside it
+     * @return image of size NxN, the destination if given
+     */
+    public static Mat getSurroundingPixels(Mat image, int x, int y, int size, Mat destination) {
         final int width = image.width();
         final int height = image.height();
         if (x < 0 || x >= width) {
@@ -246,63 +349,117 @@ public class ImageUtils {
         final Scalar black = new Scalar(0, 0, 0);
         Mat submat = image.submat(startY, endY, startX, endX);
         if (paddingBottom == 0 && paddingLeft == 0 && paddingRight == 0 && paddingTop == 0) {
-            return submat; //If surrounding is entierly contained inside image borders
+            if (destination == null) {
+                return submat; //If surrounding is entierly contained inside image borders
+            }
+            submat.copyTo(destination);
+            submat.release();
+            return destination;
         }
-        final Mat result = new Mat();
+        final Mat result = destination != null ? destination : new Mat();
         Core.copyMakeBorder(submat, result, paddingTop, paddingBottom, paddingLeft, paddingRight, Core.BORDER_CONSTANT, black);
+        submat.release();
         return result;
     }
 
     /**
-     * Randomly samples image specified number of times.
+     * Randomly samples pixels inside the region of interest, of both classes at once. Mask and manual are read in bulk
+     * and scanned once, keeping a uniform random sample of each class with reservoir sampling, so the same random
+     * number generator state always gives the same samples.
      *
-     * @param image    input image
-     * @param mask     mask denoting region of interest
-     * @param manual   mask denoting classes
-     * @param positive should samples contain positive cases
-     * @param howMany  how many samples to take, should be nonnegative
-     * @param size     how many pixels to take from each side of sample, should be nonnegative
-     * @return list of three lists with samples
+     * @param image            input image
+     * @param mask             mask denoting region of interest, white inside
+     * @param manual           mask denoting classes, white for positive cases
+     * @param howManyPositives how many positive samples to take, should be nonnegative
+     * @param howManyNegatives how many negative samples to take, should be nonnegative
+     * @param size             how many pixels to take from each side of sample, should be nonnegative
+     * @param random           source of randomness
+     * @return list of two lists with surroundings of samples, positive first
+     * @throws IllegalArgumentException if there are fewer pixels of a class than samples to take
      */
-    public static List<List<Mat>> sampleImage(Mat image, Mat mask, Mat manual, boolean positive, int howMany, int size) {
+    public static List<List<Mat>> sampleImage(Mat image, Mat mask, Mat manual, int howManyPositives,
+                                              int howManyNegatives, int size, Random random) {
         if (size < 0) {
             throw new IllegalArgumentException("Negative size: " + size);
         }
-        if (howMany < 0) {
-            throw new IllegalArgumentException("Negative number of samples: " + howMany);
-        }
-        final List<Point> points = new ArrayList<>();
-        final double[] white = {255, 255, 255};
-        for (int y = 0; y < image.height(); y++) {
-            for (int x = 0; x < image.width(); x++) {
-                if (Arrays.equals(mask.get(y, x), white)) {
-                    if (Arrays.equals(manual.get(y, x), white)) {
-                        if (positive) {
-                            points.add(new Point(x, y));
-                        }
-                    } else {
-                        if (!positive) {
-                            points.add(new Point(x, y));
-                        }
-                    }
-                }
+        if (howManyPositives < 0 || howManyNegatives < 0) {
+            throw new IllegalArgumentException("Negative number of samples");
+        }
+        final int width = image.width();
+        final int pixels = width * image.height();
+        final byte[] maskData = new byte[pixels * mask.channels()];
+        mask.get(0, 0, maskData);
+        final byte[] manualData = new byte[pixels * manual.channels()];
+        manual.get(0, 0, manualData);
+
+        final int[] positives = new int[howManyPositives];
+        final int[] negatives = new int[howManyNegatives];
+        int positivesSeen = 0;
+        int negativesSeen = 0;
+        for (int pixel = 0; pixel < pixels; pixel++) {
+            if (!isWhite(maskData, pixel, mask.channels())) {
+                continue;
+            }
+            if (isWhite(manualData, pixel, manual.channels())) {
+                offerToReservoir(positives, positivesSeen++, pixel, random);
+            } else {
+                offerToReservoir(negatives, negativesSeen++, pixel, random);
             }
         }
-        Random rng = new Random();
-        final List<List<Mat>> result = new ArrayList<>();
-        for (int i = 0; i < 3; i++) {
-            result.add(new ArrayList<>());
+        if (positivesSeen < howManyPositives || negativesSeen < howManyNegatives) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot take %d positive and %d negative samples from %d positive and %d negative pixels",
+                    howManyPositives, howManyNegatives, positivesSeen, negativesSeen));
         }
-        for (int i = 0; i < howMany; i++) {
-            final int index = rng.nextInt(points.size());
-            final Point center = points.remove(index);
-            result.get(0).add(getSurroundingPixels(image, (int) center.x, (int) center.y, size));
-            result.get(1).add(getSurroundingPixels(mask, (int) center.x, (int) center.y, size));
-            result.get(2).add(getSurroundingPixels(manual, (int) center.x, (int) center.y, size));
+
+        final List<List<Mat>> result = new ArrayList<>();
+        for (int[] reservoir : Arrays.asList(positives, negatives)) {
+            final List<Mat> samples = new ArrayList<>();
+            for (int pixel : reservoir) {
+                final Mat surrounding = getSurroundingPixels(image, pixel % width, pixel / width, size);
+                try {
+                    samples.add(surrounding.clone());
+                } finally {
+                    // Padded surroundings near the edges are temporary images of their own
+                    surrounding.release();
+                }
+            }
+            result.add(samples);
         }
         return result;
     }
 
+    /**
+     * @return whether all channels of pixel are 255
+     */
+    private static boolean isWhite(byte[] data, int pixel, int channels) {
+        for (int channel = 0; channel < channels; channel++) {
+            if (data[pixel * channels + channel] != (byte) 255) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Keeps each of the items seen so far in the reservoir with equal probability.
+     *
+     * @param reservoir chosen items
+     * @param seen      number of items offered before this one
+     * @param item      offered item
+     * @param random    source of randomness
+     */
+    private static void offerToReservoir(int[] reservoir, int seen, int item, Random random) {
+        if (seen < reservoir.length) {
+            reservoir[seen] = item;
+            return;
+        }
+        final int index = random.nextInt(seen + 1);
+        if (index < reservoir.length) {
+            reservoir[index] = item;
+        }
+    }
+
     /**
      * Creates new image by adding black border of specified size to image.
      *
@@ -314,64 +471,104 @@ public class ImageUtils {
         if (size < 0) {
             throw new IllegalArgumentException("Negative size: " + size);
         }
-        final int width = image.width();
-        final int height = image.height();
-        final Mat imageWithPadding = new Mat(width + 2 * size, height + 2 * size, image.type());
+        final Mat imageWithPadding = new Mat(image.height() + 2 * size, image.width() + 2 * size, image.type());
         final Scalar black = new Scalar(0, 0, 0);
         Core.copyMakeBorder(image, imageWithPadding, size, size, size, size, Core.BORDER_CONSTANT, black);
         return imageWithPadding;
     }
 
+    /**
+     * Computes magnitude of gradient of the image smoothed with Gaussian of each scale, divided by the scale, and takes
+     * maximum over the scales for every pixel.
+     *
+     * @param image      single channel image
+     * @param startScale first standard deviation of the Gaussian, positive
+     * @param endScale   last standard deviation of the Gaussian, inclusive
+     * @param step       difference between consecutive scales, positive
+     * @return single channel 32-bit float image
+     */
     public static Mat gradientMagnitudeMaximumOverScales(Mat image, int startScale, int endScale, int step) {
-        Mat maximum = new Mat(image.size(), CvType.CV_32F);
-
+        Mat maximum = null;
         for (int i = startScale; i <= endScale; i += step) {
             final Mat magnitude = gradientMagnitude(image, i);
-            final Mat divided = new Mat();
-            Core.divide(magnitude, new Scalar(i), divided);
-            Core.max(divided, maximum, maximum);
+            Core.divide(magnitude, new Scalar(i), magnitude);
+            if (maximum == null) {
+                maximum = magnitude;
+            } else {
+                Core.max(magnitude, maximum, maximum);
+                magnitude.release();
+            }
         }
         return maximum;
     }
 
-    private static Mat gradientMagnitude(Mat image, int scale) {
-        final Mat kernel = Imgproc.getGaussianKernel(3 * scale, scale);
+    /**
+     * @return number of pixels on each side of a pixel which influence its value in maps computed over the scales
+     */
+    public static int scaleSupport(int endScale) {
+        // Half of the Gaussian kernel and one more pixel for the derivative
+        return gaussianKernelSize(endScale) / 2 + 1;
+    }
+
+    private static int gaussianKernelSize(int scale) {
+        return 3 * scale | 1;
+    }
+
+    private static Mat gaussian(Mat image, int scale) {
+        final Mat kernel = Imgproc.getGaussianKernel(gaussianKernelSize(scale), scale);
         final Mat gauss = new Mat();
-        Imgproc.filter2D(image, gauss, CvType.CV_32F, kernel);
+        Imgproc.sepFilter2D(image, gauss, CvType.CV_32F, kernel, kernel);
+        kernel.release();
+        return gauss;
+    }
+
+    private static Mat gradientMagnitude(Mat image, int scale) {
+        final Mat gauss = gaussian(image, scale);
         final Mat sobelX = new Mat();
         Imgproc.Sobel(gauss, sobelX, CvType.CV_32F, 1, 0);
         final Mat sobelY = new Mat();
         Imgproc.Sobel(gauss, sobelY, CvType.CV_32F, 0, 1);
         final Mat magnitude = new Mat(sobelX.size(), sobelX.type());
         Core.magnitude(sobelX, sobelY, magnitude);
+        gauss.release();
+        sobelX.release();
+        sobelY.release();
         return magnitude;
     }
 
+    /**
+     * Computes larger eigenvalue of Hessian of the image smoothed with Gaussian of each scale, divided by the scale,
+     * and takes maximum over the scales for every pixel.
+     *
+     * @param image      single channel image
+     * @param startScale first standard deviation of the Gaussian, positive
+     * @param endScale   last standard deviation of the Gaussian, inclusive
+     * @param step       difference between consecutive scales, positive
+     * @return single channel 32-bit float image
+     */
     public static Mat largestEigenvalueMaximumOverScales(Mat image, int startScale, int endScale, int step) {
-        Mat maximum = new Mat(image.size(), CvType.CV_32F);
-
+        Mat maximum = null;
         for (int i = startScale; i <= endScale; i += step) {
             final Mat eigen = largeEigenvalue(image, i);
-            final Mat divided = new Mat();
-            Core.divide(eigen, new Scalar(i), divided);
-            Core.max(divided, maximum, maximum);
+            Core.divide(eigen, new Scalar(i), eigen);
+            if (maximum == null) {
+                maximum = eigen;
+            } else {
+                Core.max(eigen, maximum, maximum);
+                eigen.release();
+            }
         }
         return maximum;
     }
 
     private static Mat largeEigenvalue(Mat image, int scale) {
-        final Mat kernel = Imgproc.getGaussianKernel(3 * scale, scale);
-        final Mat gauss = new Mat();
-        Imgproc.filter2D(image, gauss, CvType.CV_32F, kernel);
+        final Mat gauss = gaussian(image, scale);
         final Mat sobelXX = new Mat();
         Imgproc.Sobel(gauss, sobelXX, CvType.CV_32F, 2, 0);
-        Imgcodecs.imwrite("/home/krzysztof/Pictures/Wallpapers/sobelXX.jpg", sobelXX);
         final Mat sobelYY = new Mat();
         Imgproc.Sobel(gauss, sobelYY, CvType.CV_32F, 0, 2);
-        Imgcodecs.imwrite("/home/krzysztof/Pictures/Wallpapers/sobelYY.jpg", sobelYY);
         final Mat sobelXY = new Mat();
         Imgproc.Sobel(gauss, sobelXY, CvType.CV_32F, 1, 1);
-        Imgcodecs.imwrite("/home/krzysztof/Pictures/Wallpapers/sobelXY.jpg", sobelXY);
         Mat alpha = calculateAlpha(sobelXX, sobelYY, sobelXY);
         Core.divide(alpha, new Scalar(2), alpha);
         final Mat sum = new Mat();
@@ -380,7 +577,9 @@ public class ImageUtils {
         Core.add(sobelXX, sobelYY, sum);
         final Mat eigen = new Mat();
         Core.add(sum, alpha, eigen);
-
+        for (Mat mat : Arrays.asList(gauss, sobelXX, sobelYY, sobelXY, alpha, sum)) {
+            mat.release();
+        }
         return eigen;
     }
 
@@ -394,69 +593,160 @@ public class ImageUtils {
         Core.add(square1, square2, sum);
         final Mat alpha = new Mat();
         Core.sqrt(sum, alpha);
+        sum.release();
+        square1.release();
+        square2.release();
         return alpha;
     }
 
-    public static void generateSamplesForFolderParallel(String inputPath, String outputPath, ImageLoader imageLoader,
-            int howManyPositives, int howManyNegatives, int size) {
-
-        final Path imagesPath = Paths.get(inputPath, "images");
-        final Path masksPath = Paths.get(inputPath, "masks");
-        final Path manualsPath = Paths.get(inputPath, "manuals");
-        final File[] images = imagesPath.toFile().listFiles();
-        final File[] masks = masksPath.toFile().listFiles();
-        final File[] manuals = manualsPath.toFile().listFiles();
-        final AtomicInteger positivesIndex = new AtomicInteger(1);
-        final AtomicInteger negativesIndex = new AtomicInteger(1);
-        final ProgressInfo progressInfo = new ProgressInfo(images.length * (howManyPositives + howManyNegatives));
-        IntStream.range(0, images.length).parallel().forEach(i -> {
-            final Mat image = imageLoader.loadImage(images[i].getAbsolutePath());
-            final Mat mask = Imgcodecs.imread(masks[i].getAbsolutePath());
-            final Mat manual = Imgcodecs.imread(manuals[i].getAbsolutePath());
-            final List<Mat> positives = sampleImage(image, mask, manual, true, howManyPositives, size).get(0);
-            for (final Mat imageToSave : positives) {
-                final Path outputImagePath = Paths.get(outputPath, String.format("T_%1$03d.png", positivesIndex.getAndIncrement()));
-                Imgcodecs.imwrite(outputImagePath.toString(), imageToSave);
-                progressInfo.incrementWorkCount();
+    /**
+     * Samples all images in a folder in parallel and appends the samples to an archive. Samples of each image are
+     * drawn with a random number generator seeded from the seed and the name of the image, and appended in order of
+     * the images, so the archive is the same whatever the order in which images are sampled.
+     *
+     * @param inputPath        directory containing 'images', 'manuals' and 'masks' subdirectories
+     * @param archive          archive receiving the samples
+     * @param imageLoader      loader preprocessing the images
+     * @param howManyPositives how many vessel samples to take from each image
+     * @param howManyNegatives how many background samples to take from each image
+     * @param size             how many pixels to take from each side of sample center
+     * @param seed             seed of the random choice of samples
+     */
+    public static void generateSamplesForFolderParallel(String inputPath, SampleArchive.Writer archive,
+            ImageLoader imageLoader, int howManyPositives, int howManyNegatives, int size, long seed) {
+        final File[][] files = listSampledFiles(inputPath);
+        final File[] images = files[0];
+        final Metrics.Progress progress = Metrics.get().startProgress("Sample generation",
+                images.length * (howManyPositives + howManyNegatives));
+        try {
+            IntStream.range(0, images.length).parallel()
+                     .mapToObj(i -> sampleFile(images[i], files[1][i], files[2][i], imageLoader, howManyPositives,
+                                               howManyNegatives, size, seed))
+                     .forEachOrdered(samples -> {
+                         try {
+                             appendSamples(samples, archive, progress);
+                         } catch (IOException e) {
+                             throw new UncheckedIOException(e);
+                         }
+                     });
+        } finally {
+            progress.finish();
+        }
+    }
+
+    /**
+     * Samples all images in a folder one after another and appends the samples to an archive. Gives the same archive
+     * as {@link #generateSamplesForFolderParallel} with the same seed.
+     *
+     * @param inputPath        directory containing 'images', 'manuals' and 'masks' subdirectories
+     * @param archive          archive receiving the samples
+     * @param imageLoader      loader preprocessing the images
+     * @param howManyPositives how many vessel samples to take from each image
+     * @param howManyNegatives how many background samples to take from each image
+     * @param size             how many pixels to take from each side of sample center
+     * @param seed             seed of the random choice of samples
+     * @throws IOException if samples cannot be written
+     */
+    public static void generateSamplesForFolder(String inputPath, SampleArchive.Writer archive, ImageLoader imageLoader,
+                                                int howManyPositives, int howManyNegatives, int size, long seed)
+            throws IOException {
+        final File[][] files = listSampledFiles(inputPath);
+        final File[] images = files[0];
+        final Metrics.Progress progress = Metrics.get().startProgress("Sample generation",
+                images.length * (howManyPositives + howManyNegatives));
+        try {
+            for (int i = 0; i < images.length; i++) {
+                appendSamples(sampleFile(images[i], files[1][i], files[2][i], imageLoader, howManyPositives,
+                                         howManyNegatives, size, seed), archive, progress);
+            }
+        } finally {
+            progress.finish();
+        }
+    }
+
+    /**
+     * Finds file of the image in another directory of the data set, like its mask or manual. Files of one image are
+     * named as the image without extension, masks with '_mask' appended, e.g. 01_dr.JPG, 01_dr.tif and
+     * 01_dr_mask.tif.
+     *
+     * @param directory directory to search
+     * @param imageName name of the image file
+     * @return file of the image, or null if the directory does not contain one
+     */
+    public static File findCorrespondingFile(File directory, String imageName) {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IllegalArgumentException(directory + " directory does not exist");
+        }
+        final String baseName = Files.getNameWithoutExtension(imageName);
+        Arrays.sort(files);
+        for (File file : files) {
+            final String name = Files.getNameWithoutExtension(file.getName());
+            if (name.equals(baseName) || name.equals(baseName + "_mask")) {
+                return file;
             }
-            final List<Mat> negatives = sampleImage(image, mask, manual, false, howManyNegatives, size).get(0);
-            for (final Mat imageToSave : negatives) {
-                final Path outputImagePath = Paths.get(outputPath, String.format("F_%1$03d.png", negativesIndex.getAndIncrement()));
-                Imgcodecs.imwrite(outputImagePath.toString(), imageToSave);
-                progressInfo.incrementWorkCount();
+        }
+        return null;
+    }
+
+    /**
+     * Lists images of a folder sorted by name, with their masks and manuals found by
+     * {@link #findCorrespondingFile}. Images without a mask or manual are skipped, as they cannot be sampled.
+     *
+     * @return images, masks and manuals, files of one image sharing an index
+     */
+    private static File[][] listSampledFiles(String inputPath) {
+        final File[] images = Paths.get(inputPath, "images").toFile().listFiles();
+        if (images == null) {
+            throw new IllegalArgumentException(inputPath + " does not contain 'images' directory");
+        }
+        Arrays.sort(images);
+        final File masksFolder = Paths.get(inputPath, "masks").toFile();
+        final File manualsFolder = Paths.get(inputPath, "manuals").toFile();
+        final List<File[]> sampled = new ArrayList<>();
+        for (File image : images) {
+            final File mask = findCorrespondingFile(masksFolder, image.getName());
+            final File manual = findCorrespondingFile(manualsFolder, image.getName());
+            if (mask == null || manual == null) {
+                final String missing = mask == null ? "mask" : "manual";
+                System.out.println("Skipping image " + image.getName() + " without " + missing);
+                continue;
             }
-        });
-    }
-
-    public static void generateSamplesForFolder(String inputPath, String outputPath, ImageLoader imageLoader,
-                                                int howManyPositives, int howManyNegatives, int size) {
-
-        final Path imagesPath = Paths.get(inputPath, "images");
-        final Path masksPath = Paths.get(inputPath, "masks");
-        final Path manualsPath = Paths.get(inputPath, "manuals");
-        final File[] images = imagesPath.toFile().listFiles();
-        final File[] masks = masksPath.toFile().listFiles();
-        final File[] manuals = manualsPath.toFile().listFiles();
-        int positivesIndex = 1;
-        int negativesIndex = 1;
-        final ProgressInfo progressInfo = new ProgressInfo(images.length * (howManyPositives + howManyNegatives));
-        for (int i = 0; i < images.length; i++) {
-            final Mat image = imageLoader.loadImage(images[i].getAbsolutePath());
-            final Mat mask = Imgcodecs.imread(masks[i].getAbsolutePath());
-            final Mat manual = Imgcodecs.imread(manuals[i].getAbsolutePath());
-            final List<Mat> positives = sampleImage(image, mask, manual, true, howManyPositives, size).get(0);
-            for (int j = 0; j < positives.size(); j++) {
-                final Mat imageToSave = positives.get(j);
-                final Path outputImagePath = Paths.get(outputPath, String.format("T_%1$03d.png", positivesIndex++));
-                Imgcodecs.imwrite(outputImagePath.toString(), imageToSave);
-                progressInfo.incrementWorkCount();
+            sampled.add(new File[]{image, mask, manual});
+        }
+        final File[][] files = new File[3][sampled.size()];
+        for (int i = 0; i < sampled.size(); i++) {
+            for (int kind = 0; kind < files.length; kind++) {
+                files[kind][i] = sampled.get(i)[kind];
             }
-            final List<Mat> negatives = sampleImage(image, mask, manual, false, howManyNegatives, size).get(0);
-            for (int j = 0; j < negatives.size(); j++) {
-                final Mat imageToSave = negatives.get(j);
-                final Path outputImagePath = Paths.get(outputPath, String.format("F_%1$03d.png", negativesIndex++));
-                Imgcodecs.imwrite(outputImagePath.toString(), imageToSave);
-                progressInfo.incrementWorkCount();
+        }
+        return files;
+    }
+
+    private static List<List<Mat>> sampleFile(File imageFile, File maskFile, File manualFile, ImageLoader imageLoader,
+                                              int howManyPositives, int howManyNegatives, int size, long seed) {
+        final Mat image = imageLoader.loadImage(imageFile.getAbsolutePath());
+        final Mat mask = Imgcodecs.imread(maskFile.getAbsolutePath());
+        final Mat manual = Imgcodecs.imread(manualFile.getAbsolutePath());
+        try {
+            final Random random = new Random(seed * 31 + imageFile.getName().hashCode());
+            return sampleImage(image, mask, manual, howManyPositives, howManyNegatives, size, random);
+        } finally {
+            image.release();
+            mask.release();
+            manual.release();
+        }
+    }
+
+    private static void appendSamples(List<List<Mat>> samples, SampleArchive.Writer archive,
+                                      Metrics.Progress progress) throws IOException {
+        for (int i = 0; i < samples.size(); i++) {
+            // Positive samples come first
+            final boolean isVessel = i == 0;
+            for (Mat sample : samples.get(i)) {
+                archive.append(sample, isVessel);
+                sample.release();
+                progress.incrementWorkCount();
             }
         }
     }
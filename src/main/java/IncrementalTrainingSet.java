@@ -0,0 +1,124 @@
+import java.util.Arrays;
+
+/**
+ * Training cases which can be added one by one, also while classification is running. Sums and sums of squares of each
+ * attribute are kept up to date as training cases are added, so means and standard deviations are derived from them
+ * without going over the training cases again. They are divided the same way as by {@link StatisticUtils}, so that a
+ * snapshot is the same as a {@link NormalizedTrainingSet} computed in batch from the same vectors. Only normalizing the
+ * training cases waits until a snapshot is requested after a change.
+ */
+public class IncrementalTrainingSet {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int dimension;
+    private double[] data;
+    private boolean[] labels;
+    private final double[] sums;
+    private final double[] sumsOfSquares;
+    private int size;
+    private long version;
+    private NormalizedTrainingSet snapshot;
+    private long snapshotVersion = -1;
+
+    /**
+     * @param dimension number of attributes of each training case
+     */
+    public IncrementalTrainingSet(int dimension) {
+        this.dimension = dimension;
+        this.data = new double[INITIAL_CAPACITY * dimension];
+        this.labels = new boolean[INITIAL_CAPACITY];
+        this.sums = new double[dimension];
+        this.sumsOfSquares = new double[dimension];
+    }
+
+    /**
+     * Creates training set containing training cases of a normalized training set, restored to original values. Until
+     * a training case is added, the given training set is its snapshot, so that classifiers built on it decide exactly
+     * as before.
+     */
+    public static IncrementalTrainingSet of(NormalizedTrainingSet trainingSet) {
+        final int dimension = trainingSet.getDimension();
+        final IncrementalTrainingSet incremental = new IncrementalTrainingSet(dimension);
+        final double[] normalized = trainingSet.getData();
+        final double[] vector = new double[dimension];
+        for (int i = 0; i < trainingSet.size(); i++) {
+            for (int attr = 0; attr < dimension; attr++) {
+                vector[attr] = normalized[i * dimension + attr] * trainingSet.getStandardDeviations()[attr]
+                               + trainingSet.getMeans()[attr];
+            }
+            incremental.add(vector, trainingSet.isVessel(i));
+        }
+        incremental.snapshot = trainingSet;
+        incremental.snapshotVersion = incremental.version;
+        return incremental;
+    }
+
+    /**
+     * Adds a training case.
+     *
+     * @param vector   attributes of the training case, not normalized
+     * @param isVessel whether the training case is a vessel
+     * @return version of the training set including the new training case
+     */
+    public synchronized long add(double[] vector, boolean isVessel) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Vector has " + vector.length + " attributes instead of " + dimension);
+        }
+        if (size == labels.length) {
+            data = Arrays.copyOf(data, 2 * data.length);
+            labels = Arrays.copyOf(labels, 2 * labels.length);
+        }
+        System.arraycopy(vector, 0, data, size * dimension, dimension);
+        for (int attr = 0; attr < dimension; attr++) {
+            sums[attr] += vector[attr];
+            sumsOfSquares[attr] += vector[attr] * vector[attr];
+        }
+        labels[size] = isVessel;
+        size++;
+        return ++version;
+    }
+
+    /**
+     * @return version of the training set, incremented with every added training case
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Returns normalized copy of the training set in its current version. The copy is not affected by training cases
+     * added later, and it is reused until the next one is added.
+     *
+     * @return normalized training set
+     */
+    public synchronized NormalizedTrainingSet snapshot() {
+        if (snapshotVersion != version) {
+            final double[] means = new double[dimension];
+            final double[] standardDeviations = new double[dimension];
+            for (int attr = 0; attr < dimension; attr++) {
+                // Divided by the dimension, as StatisticUtils does, to match training sets computed in batch
+                means[attr] = sums[attr] / dimension;
+                // Sum of squared deviations from the mean, expanded so that it needs only the running sums
+                final double squaredDeviations = sumsOfSquares[attr] - 2 * means[attr] * sums[attr]
+                                                 + size * means[attr] * means[attr];
+                standardDeviations[attr] = Math.sqrt(Math.max(0, squaredDeviations) / dimension);
+            }
+            final double[] normalized = Arrays.copyOf(data, size * dimension);
+            for (int offset = 0; offset < normalized.length; offset += dimension) {
+                StatisticUtils.normalize(normalized, offset, means, standardDeviations);
+            }
+            snapshot = new NormalizedTrainingSet(normalized, Arrays.copyOf(labels, size), means, standardDeviations);
+            snapshotVersion = version;
+        }
+        return snapshot;
+    }
+}
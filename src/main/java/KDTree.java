@@ -0,0 +1,152 @@
+/**
+ * Static k-d tree built over the training cases. Allows finding the nearest neighbours of a vector without computing
+ * the distance to every training case.
+ */
+public class KDTree implements NeighbourIndex {
+
+    private static final int LEAF_SIZE = 8;
+
+    private final int dimension;
+    private final double[] points;
+    private final int[] order;
+    private final int[] splitDimensions;
+    private final double[] splitValues;
+    private final int firstLeaf;
+
+    /**
+     * Builds the tree over a copy of the training matrix, reordered so that training cases of each leaf are stored
+     * next to each other.
+     *
+     * @param trainingSet normalized training cases
+     */
+    public KDTree(NormalizedTrainingSet trainingSet) {
+        final int size = trainingSet.size();
+        this.dimension = trainingSet.getDimension();
+        this.order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        // Complete binary tree stored in arrays, children of node n are 2n+1 and 2n+2
+        int leaves = 1;
+        while (size / leaves > LEAF_SIZE) {
+            leaves *= 2;
+        }
+        this.firstLeaf = leaves - 1;
+        this.splitDimensions = new int[firstLeaf];
+        this.splitValues = new double[firstLeaf];
+        final double[] data = trainingSet.getData();
+        build(data, 0, 0, size);
+
+        this.points = new double[data.length];
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(data, order[i] * dimension, points, i * dimension, dimension);
+        }
+    }
+
+    /**
+     * Finds training cases closest to the given vector in terms of euclidean distance. Ties are resolved in favour of
+     * the training case which comes first in the training set. The heap is cleared first and then filled with at most
+     * its capacity of neighbours, distances are stored squared.
+     *
+     * @param query      normalized vector to find neighbours of
+     * @param neighbours heap receiving training case indices of the neighbours
+     */
+    @Override
+    public void nearestNeighbours(double[] query, NeighbourHeap neighbours) {
+        neighbours.clear();
+        search(0, 0, order.length, query, neighbours);
+    }
+
+    @Override
+    public void refineNeighbours(double[] query, NeighbourHeap neighbours) {
+        search(0, 0, order.length, query, neighbours);
+    }
+
+    private void build(double[] data, int node, int from, int to) {
+        if (node >= firstLeaf) {
+            return;
+        }
+        final int splitDimension = widestDimension(data, from, to);
+        final int middle = (from + to) >>> 1;
+        select(data, from, to, middle, splitDimension);
+        splitDimensions[node] = splitDimension;
+        splitValues[node] = to > from ? data[order[middle] * dimension + splitDimension] : 0;
+        build(data, 2 * node + 1, from, middle);
+        build(data, 2 * node + 2, middle, to);
+    }
+
+    private int widestDimension(double[] data, int from, int to) {
+        int widest = 0;
+        double widestSpread = -1;
+        for (int attr = 0; attr < dimension; attr++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                final double value = data[order[i] * dimension + attr];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > widestSpread) {
+                widestSpread = max - min;
+                widest = attr;
+            }
+        }
+        return widest;
+    }
+
+    /**
+     * Partially sorts the range so that the element at position k is the one which would be there after sorting by
+     * given attribute, smaller or equal elements are before it and greater or equal elements after it.
+     */
+    private void select(double[] data, int from, int to, int k, int attr) {
+        int left = from;
+        int right = to - 1;
+        while (left < right) {
+            final double pivot = data[order[(left + right) >>> 1] * dimension + attr];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (data[order[i] * dimension + attr] < pivot) {
+                    i++;
+                }
+                while (data[order[j] * dimension + attr] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    final int swapped = order[i];
+                    order[i] = order[j];
+                    order[j] = swapped;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void search(int node, int from, int to, double[] query, NeighbourHeap neighbours) {
+        if (node >= firstLeaf) {
+            DistanceKernel.scan(query, points, dimension, from, to, order, neighbours);
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        final double difference = query[splitDimensions[node]] - splitValues[node];
+        if (difference < 0) {
+            search(2 * node + 1, from, middle, query, neighbours);
+            if (difference * difference <= neighbours.worstDistance()) {
+                search(2 * node + 2, middle, to, query, neighbours);
+            }
+        } else {
+            search(2 * node + 2, middle, to, query, neighbours);
+            if (difference * difference <= neighbours.worstDistance()) {
+                search(2 * node + 1, from, middle, query, neighbours);
+            }
+        }
+    }
+}
@@ -1,48 +1,142 @@
 import org.opencv.core.Mat;
-
-import java.util.*;
-import java.util.stream.Stream;
+import org.opencv.core.Rect;
 
 public class KNNClassifier extends AbstractClassifier {
 
     final private short numberOfNeighbours;
     final private VariantModel variantModel;
+    final private int size;
+    final private NeighbourIndex index;
+    final private ThreadLocal<double[]> queries;
+    final private ThreadLocal<NeighbourHeap> heaps;
+
+    /**
+     * @param trainingSet        normalized training cases
+     * @param variantModel       model computing vectors of attributes
+     * @param size               how many pixels were taken from each side of training pixels to compute their vectors
+     * @param numberOfNeighbours how many neighbours vote, must be odd
+     */
+    public KNNClassifier(NormalizedTrainingSet trainingSet, VariantModel variantModel, int size,
+                         short numberOfNeighbours) {
+        this(trainingSet, variantModel, size, numberOfNeighbours, new KDTree(trainingSet));
+    }
 
-    public KNNClassifier(NormalizedTrainingSet trainingSet, VariantModel variantModel, short numberOfNeighbours) {
+    /**
+     * @param trainingSet        normalized training cases
+     * @param variantModel       model computing vectors of attributes
+     * @param size               how many pixels were taken from each side of training pixels to compute their vectors
+     * @param numberOfNeighbours how many neighbours vote, must be odd
+     * @param index              index over the training set finding the neighbours
+     */
+    protected KNNClassifier(NormalizedTrainingSet trainingSet, VariantModel variantModel, int size,
+                            short numberOfNeighbours, NeighbourIndex index) {
         super(trainingSet);
         if (numberOfNeighbours % 2 == 0) {
             throw new IllegalArgumentException("Number of neighbours must not be even");
         }
         this.numberOfNeighbours = numberOfNeighbours;
         this.variantModel = variantModel;
+        this.size = size;
+        this.index = index;
+        // Per-thread buffers, so that classifying a pixel does not allocate
+        this.queries = ThreadLocal.withInitial(() -> new double[trainingSet.getDimension()]);
+        this.heaps = ThreadLocal.withInitial(() -> new NeighbourHeap(numberOfNeighbours));
+    }
+
+    /**
+     * Creates classifier from a stored model, without recomputing its training set.
+     *
+     * @param snapshot           stored model
+     * @param numberOfNeighbours how many neighbours vote, must be odd
+     */
+    public KNNClassifier(ModelSnapshot snapshot, short numberOfNeighbours) {
+        this(snapshot.getTrainingSet(), snapshot.getVariantModel(), snapshot.getSize(), numberOfNeighbours);
     }
 
     @Override
     public boolean isVessel(Mat image, int x, int y) {
-        final Variant analyzedVariant = new Variant(image); // There should be a cut image, not the function parameter
-        final List<Double> analyzedVector = analyzedVariant.getVector(variantModel);
-        StatisticUtils.normalize(analyzedVector, trainingSet.getMeans(), trainingSet.getStandardDeviations());
-        final Map<TrainingVector, Double> distanceMappedTrainingVectors = new HashMap<>();
+        final Mat destination = MatPool.acquire(2 * size + 1, 2 * size + 1, image.type());
+        final Mat surrounding = ImageUtils.getSurroundingPixels(image, x, y, size, destination);
+        final double[] query = queries.get();
+        variantModel.getVector(surrounding, query);
+        MatPool.release(surrounding);
+        return classify(query);
+    }
 
-        for (TrainingVector trainingVector : trainingSet.getTrainingVectors()) {
-            distanceMappedTrainingVectors.put(trainingVector, distance(analyzedVector, trainingVector.getVectorData()));
+    @Override
+    public boolean isVessel(double[] vector) {
+        final double[] query = queries.get();
+        System.arraycopy(vector, 0, query, 0, query.length);
+        return classify(query);
+    }
+
+    /**
+     * Visits the pixels row by row in alternating directions, so that consecutive pixels are adjacent. Adjacent pixels
+     * have similar vectors, so neighbours of the previous pixel are good candidates for the next one and let the index
+     * skip most of the training cases. With an exact index decisions are the same as those of
+     * {@link #isVessel(double[])}, with an approximate one they are at least as close to the exact ones.
+     */
+    @Override
+    public void classifyRegion(FeatureMap features, Rect roi, byte[] mask) {
+        final int dimension = trainingSet.getDimension();
+        final double[] data = trainingSet.getData();
+        final double[] means = trainingSet.getMeans();
+        final double[] standardDeviations = trainingSet.getStandardDeviations();
+        final double[] query = queries.get();
+        final NeighbourHeap neighbours = heaps.get();
+        final int[] previous = new int[numberOfNeighbours];
+        int previousCount = 0;
+        long searchNanos = 0;
+        for (int y = 0; y < roi.height; y++) {
+            final boolean leftToRight = y % 2 == 0;
+            for (int i = 0; i < roi.width; i++) {
+                final int x = leftToRight ? i : roi.width - 1 - i;
+                final int pixel = y * roi.width + x;
+                if (mask[pixel] == 0) {
+                    continue;
+                }
+                features.getVector(roi.x + x, roi.y + y, query);
+                StatisticUtils.normalize(query, 0, means, standardDeviations);
+
+                final long start = System.nanoTime();
+                neighbours.clear();
+                for (int n = 0; n < previousCount; n++) {
+                    neighbours.offer(previous[n], DistanceKernel.squaredDistance(query, data, previous[n] * dimension,
+                                                                                 dimension, Double.POSITIVE_INFINITY));
+                }
+                index.refineNeighbours(query, neighbours);
+                searchNanos += System.nanoTime() - start;
+
+                previousCount = neighbours.size();
+                for (int n = 0; n < previousCount; n++) {
+                    previous[n] = neighbours.index(n);
+                }
+                mask[pixel] = vote(neighbours) ? (byte) 255 : 0;
+            }
         }
+        Metrics.get().recordNanos(Metrics.Stage.NEIGHBOUR_SEARCH, searchNanos);
+    }
 
-        final Stream<TrainingVector> neighbouringVariants =
-                trainingSet.getTrainingVectors()
-                           .stream()
-                           .sorted(Comparator.comparingDouble(distanceMappedTrainingVectors::get))
-                           .limit(numberOfNeighbours);
+    /**
+     * Normalizes the query in place and lets its nearest neighbours vote.
+     */
+    private boolean classify(double[] query) {
+        StatisticUtils.normalize(query, 0, trainingSet.getMeans(), trainingSet.getStandardDeviations());
 
-        final long positiveCount = neighbouringVariants.filter(TrainingVector::isVessel).count();
-        return positiveCount > (numberOfNeighbours / 2);
+        final NeighbourHeap neighbours = heaps.get();
+        final long start = System.nanoTime();
+        index.nearestNeighbours(query, neighbours);
+        Metrics.get().record(Metrics.Stage.NEIGHBOUR_SEARCH, start);
+        return vote(neighbours);
     }
 
-    private double distance(List<Double> vector1, List<Double> vector2) {
-        double sumBeforeRoot = 0;
-        for (int attr = 0; attr < vector1.size(); ++attr) {
-            sumBeforeRoot += Math.pow(vector1.get(attr) - vector2.get(attr), 2);
+    private boolean vote(NeighbourHeap neighbours) {
+        int positiveCount = 0;
+        for (int i = 0; i < neighbours.size(); i++) {
+            if (trainingSet.isVessel(neighbours.index(i))) {
+                positiveCount++;
+            }
         }
-        return Math.sqrt(sumBeforeRoot);
+        return positiveCount > (numberOfNeighbours / 2);
     }
 }
@@ -0,0 +1,173 @@
+import org.opencv.core.Mat;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reuses native buffers of short-lived Mats, like cut surroundings of pixels and their channels. Native memory of a
+ * Mat which is not released explicitly is freed only by its finalizer, long after the Mat is garbage, so under
+ * sustained load the process keeps growing. Mats taken from the pool have to be given back with
+ * {@link #release(Mat)}, which keeps the buffer for the next Mat of the same size and type acquired on this thread.
+ * <p>
+ * Every thread has its own pool, so acquiring does not contend. Native bytes of acquired and pooled Mats are counted
+ * across all threads. While they exceed the budget, released buffers are freed instead of being kept, and a thread
+ * acquiring a Mat first frees all buffers pooled on it.
+ * <p>
+ * Pools of all threads are also registered with their threads, so that buffers left in the pool of a thread which has
+ * ended, e.g. an idle worker of a fork/join pool, are freed and no longer counted. That happens whenever a Mat has to
+ * be allocated and whenever pooled bytes are read.
+ */
+public class MatPool {
+
+    /**
+     * How many buffers of one size and type are kept on one thread.
+     */
+    private static final int MAX_POOLED_PER_SHAPE = 16;
+
+    private static final AtomicLong LIVE_BYTES = new AtomicLong();
+    private static final AtomicLong POOLED_BYTES = new AtomicLong();
+    private static final LongAdder OVER_BUDGET_ALLOCATIONS = new LongAdder();
+    private static final Map<Thread, Map<Shape, ArrayDeque<Mat>>> POOLS_OF_THREADS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Map<Shape, ArrayDeque<Mat>>> POOLS = ThreadLocal.withInitial(() -> {
+        final Map<Shape, ArrayDeque<Mat>> pool = new HashMap<>();
+        POOLS_OF_THREADS.put(Thread.currentThread(), pool);
+        return pool;
+    });
+    private static volatile long budget = 256L << 20;
+
+    static {
+        Metrics.get().registerGauge("native.liveBytes", LIVE_BYTES::get);
+        Metrics.get().registerGauge("native.pooledBytes", MatPool::getPooledBytes);
+        Metrics.get().registerGauge("native.overBudgetAllocations", OVER_BUDGET_ALLOCATIONS::sum);
+    }
+
+    private MatPool() {
+    }
+
+    /**
+     * Returns Mat of given size and type, with undefined contents. It should be given back with
+     * {@link #release(Mat)} once it is no longer used.
+     */
+    public static Mat acquire(int rows, int cols, int type) {
+        final Shape shape = new Shape(rows, cols, type);
+        final ArrayDeque<Mat> pooled = POOLS.get().get(shape);
+        if (pooled != null && !pooled.isEmpty()) {
+            final Mat mat = pooled.pop();
+            final long bytes = bytes(mat);
+            POOLED_BYTES.addAndGet(-bytes);
+            LIVE_BYTES.addAndGet(bytes);
+            return mat;
+        }
+        freePoolsOfEndedThreads();
+        final Mat mat = new Mat(rows, cols, type);
+        final long bytes = bytes(mat);
+        if (LIVE_BYTES.get() + POOLED_BYTES.get() + bytes > budget) {
+            trim();
+            if (LIVE_BYTES.get() + bytes > budget) {
+                OVER_BUDGET_ALLOCATIONS.increment();
+            }
+        }
+        LIVE_BYTES.addAndGet(bytes);
+        return mat;
+    }
+
+    /**
+     * Gives back Mat acquired from the pool. The Mat must not be used afterwards.
+     */
+    public static void release(Mat mat) {
+        final long bytes = bytes(mat);
+        LIVE_BYTES.addAndGet(-bytes);
+        final Shape shape = new Shape(mat.rows(), mat.cols(), mat.type());
+        final ArrayDeque<Mat> pooled = POOLS.get().computeIfAbsent(shape, key -> new ArrayDeque<>());
+        if (pooled.size() >= MAX_POOLED_PER_SHAPE || LIVE_BYTES.get() + POOLED_BYTES.get() + bytes > budget) {
+            mat.release();
+            return;
+        }
+        POOLED_BYTES.addAndGet(bytes);
+        pooled.push(mat);
+    }
+
+    /**
+     * Frees all buffers pooled on the current thread.
+     */
+    public static void trim() {
+        free(POOLS.get());
+    }
+
+    /**
+     * Sets how many native bytes acquired and pooled Mats may take together before pooled buffers are freed.
+     */
+    public static void setBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Negative budget: " + bytes);
+        }
+        budget = bytes;
+    }
+
+    public static long getLiveBytes() {
+        return LIVE_BYTES.get();
+    }
+
+    /**
+     * @return native bytes of pooled Mats, after freeing the ones pooled on threads which have ended
+     */
+    public static long getPooledBytes() {
+        freePoolsOfEndedThreads();
+        return POOLED_BYTES.get();
+    }
+
+    /**
+     * Frees buffers pooled on threads which have ended. A pool is no longer used once its thread has ended, and it is
+     * removed from the registry before being freed, so no other thread frees it at the same time.
+     */
+    private static void freePoolsOfEndedThreads() {
+        for (Map.Entry<Thread, Map<Shape, ArrayDeque<Mat>>> entry : POOLS_OF_THREADS.entrySet()) {
+            if (!entry.getKey().isAlive() && POOLS_OF_THREADS.remove(entry.getKey(), entry.getValue())) {
+                free(entry.getValue());
+            }
+        }
+    }
+
+    private static void free(Map<Shape, ArrayDeque<Mat>> pool) {
+        for (ArrayDeque<Mat> pooled : pool.values()) {
+            for (Mat mat = pooled.poll(); mat != null; mat = pooled.poll()) {
+                POOLED_BYTES.addAndGet(-bytes(mat));
+                mat.release();
+            }
+        }
+    }
+
+    private static long bytes(Mat mat) {
+        return mat.total() * mat.elemSize();
+    }
+
+    private static class Shape {
+        private final int rows;
+        private final int cols;
+        private final int type;
+
+        private Shape(int rows, int cols, int type) {
+            this.rows = rows;
+            this.cols = cols;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Shape)) {
+                return false;
+            }
+            final Shape shape = (Shape) o;
+            return rows == shape.rows && cols == shape.cols && type == shape.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return (rows * 31 + cols) * 31 + type;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Counters and timers of the whole application, exposed as MBean {@value #OBJECT_NAME}, so that they can be watched
+ * with any JMX client, e.g. JConsole or Java Mission Control, without attaching a profiler.
+ * <p>
+ * Recording is meant to be cheap enough to stay enabled in production: it only adds to striped counters.
+ */
+public class Metrics implements MetricsMXBean {
+
+    public static final String OBJECT_NAME = "VesselsClassifier:type=Metrics";
+
+    /**
+     * Stages of processing an image whose time is measured.
+     */
+    public enum Stage {
+        LOAD, PREPROCESS, FEATURE_EXTRACTION, NEIGHBOUR_SEARCH, CLASSIFICATION, POST_PROCESS, WRITE, STATISTICS
+    }
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            System.err.println("Could not register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    private final Map<Stage, Timer> timers = new ConcurrentHashMap<>();
+    private final LatencyHistogram isVesselLatency = new LatencyHistogram();
+    private final LongAdder classifiedPixels = new LongAdder();
+    private final Map<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+    private final Map<String, Progress> progresses = new ConcurrentHashMap<>();
+
+    private Metrics() {
+        for (Stage stage : Stage.values()) {
+            timers.put(stage, new Timer());
+        }
+    }
+
+    public static Metrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records time spent in a stage.
+     *
+     * @param stage      measured stage
+     * @param startNanos value of {@link System#nanoTime()} at the start of the stage
+     */
+    public void record(Stage stage, long startNanos) {
+        recordNanos(stage, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records time spent in a stage.
+     */
+    public void recordNanos(Stage stage, long nanos) {
+        timers.get(stage).record(nanos);
+    }
+
+    /**
+     * Records time of classification of one pixel, from computing its vector to the decision.
+     */
+    public void recordIsVessel(long nanos) {
+        isVesselLatency.record(nanos);
+        classifiedPixels.increment();
+    }
+
+    /**
+     * Records time of classification of a region at once, from computing the vectors to the decisions. Every pixel
+     * of the region counts in the latency histogram with the average time per pixel.
+     *
+     * @param nanos  time spent on the whole region
+     * @param pixels number of classified pixels, should be positive
+     */
+    public void recordRegion(long nanos, int pixels) {
+        isVesselLatency.record(nanos / pixels, pixels);
+        classifiedPixels.add(pixels);
+    }
+
+    /**
+     * Registers a value sampled whenever metrics are read, replacing a gauge with the same name.
+     */
+    public void registerGauge(String name, Supplier<? extends Number> gauge) {
+        gauges.put(name, gauge);
+    }
+
+    public void unregisterGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * Starts tracking progress of a long task. The progress is visible in metrics until the task finishes.
+     *
+     * @param name           name of the task
+     * @param totalWorkCount amount of work after which the task is finished
+     */
+    public Progress startProgress(String name, long totalWorkCount) {
+        final Progress progress = new Progress(name, totalWorkCount);
+        progresses.put(name, progress);
+        return progress;
+    }
+
+    @Override
+    public Map<String, Long> getStageCounts() {
+        final Map<String, Long> counts = new TreeMap<>();
+        timers.forEach((stage, timer) -> counts.put(stage.name(), timer.count.sum()));
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getStageTotalMillis() {
+        final Map<String, Double> totals = new TreeMap<>();
+        timers.forEach((stage, timer) -> totals.put(stage.name(), timer.total.sum() / 1e6));
+        return totals;
+    }
+
+    @Override
+    public Map<String, Double> getStageMaxMillis() {
+        final Map<String, Double> maxima = new TreeMap<>();
+        timers.forEach((stage, timer) -> maxima.put(stage.name(), timer.max.get() / 1e6));
+        return maxima;
+    }
+
+    @Override
+    public long getClassifiedPixels() {
+        return classifiedPixels.sum();
+    }
+
+    @Override
+    public double getPixelsPerSecond() {
+        final long classificationNanos = timers.get(Stage.CLASSIFICATION).total.sum();
+        return classificationNanos > 0 ? classifiedPixels.sum() / (classificationNanos / 1e9) : 0;
+    }
+
+    @Override
+    public Map<String, Long> getIsVesselLatencyHistogram() {
+        return isVesselLatency.snapshot();
+    }
+
+    @Override
+    public Map<String, Double> getGauges() {
+        final Map<String, Double> values = new TreeMap<>();
+        gauges.forEach((name, gauge) -> values.put(name, gauge.get().doubleValue()));
+        return values;
+    }
+
+    @Override
+    public Map<String, Double> getProgress() {
+        final Map<String, Double> values = new TreeMap<>();
+        progresses.forEach((name, progress) -> values.put(name, progress.getFraction()));
+        return values;
+    }
+
+    @Override
+    public void reset() {
+        timers.values().forEach(Timer::reset);
+        isVesselLatency.reset();
+        classifiedPixels.reset();
+    }
+
+    private static class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private void record(long nanos) {
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        private void reset() {
+            count.reset();
+            total.reset();
+            max.reset();
+        }
+    }
+
+    /**
+     * Histogram with buckets growing in powers of two, from below 1 microsecond to above 1 second.
+     */
+    private static class LatencyHistogram {
+        private static final int FIRST_BUCKET_SHIFT = 10;
+        private static final int BUCKETS = 22;
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        private LatencyHistogram() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        private void record(long nanos) {
+            record(nanos, 1);
+        }
+
+        private void record(long nanos, long count) {
+            final int bucket = 64 - Long.numberOfLeadingZeros(nanos >>> FIRST_BUCKET_SHIFT);
+            buckets[Math.min(bucket, BUCKETS - 1)].add(count);
+        }
+
+        /**
+         * @return counts keyed by upper bounds of the buckets in nanoseconds, zero-padded to keep them in order
+         */
+        private Map<String, Long> snapshot() {
+            final Map<String, Long> counts = new TreeMap<>();
+            for (int i = 0; i < BUCKETS; i++) {
+                final String bound = i < BUCKETS - 1 ? String.format("< %013d ns", 1L << (FIRST_BUCKET_SHIFT + i))
+                                                     : "more";
+                counts.put(bound, buckets[i].sum());
+            }
+            return counts;
+        }
+
+        private void reset() {
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+        }
+    }
+
+    /**
+     * Progress of a long task.
+     */
+    public class Progress {
+        private final String name;
+        private final long totalWorkCount;
+        private final long startTime = System.nanoTime();
+        private final LongAdder workCount = new LongAdder();
+
+        private Progress(String name, long totalWorkCount) {
+            this.name = name;
+            this.totalWorkCount = totalWorkCount;
+        }
+
+        public void incrementWorkCount() {
+            incrementWorkCount(1);
+        }
+
+        public void incrementWorkCount(long amount) {
+            workCount.add(amount);
+        }
+
+        /**
+         * @return fraction of the work done so far, from 0 to 1
+         */
+        public double getFraction() {
+            return totalWorkCount > 0 ? (double) workCount.sum() / totalWorkCount : 1;
+        }
+
+        /**
+         * Stops tracking the task, also when it has been cancelled before all work has been done.
+         */
+        public void finish() {
+            if (progresses.remove(name, this)) {
+                final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                System.out.println(String.format("%s finished in %2$tM:%2$tS", name, millis));
+            }
+        }
+    }
+}
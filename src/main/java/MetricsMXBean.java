@@ -0,0 +1,43 @@
+import java.util.Map;
+
+/**
+ * Management interface of {@link Metrics}. Times are given in milliseconds.
+ */
+public interface MetricsMXBean {
+
+    /**
+     * @return how many times each stage has been executed
+     */
+    Map<String, Long> getStageCounts();
+
+    Map<String, Double> getStageTotalMillis();
+
+    Map<String, Double> getStageMaxMillis();
+
+    long getClassifiedPixels();
+
+    /**
+     * @return classified pixels per second of time spent classifying images
+     */
+    double getPixelsPerSecond();
+
+    /**
+     * @return number of classified pixels by time of their classification
+     */
+    Map<String, Long> getIsVesselLatencyHistogram();
+
+    /**
+     * @return current values of registered gauges, e.g. sizes of queues and cache hit rates
+     */
+    Map<String, Double> getGauges();
+
+    /**
+     * @return fractions of work done by tasks in progress
+     */
+    Map<String, Double> getProgress();
+
+    /**
+     * Clears counters, timers and the histogram.
+     */
+    void reset();
+}
@@ -0,0 +1,188 @@
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Trained model stored in a binary file, so that it can be loaded without recomputing vectors of the samples.
+ * <p>
+ * The file is little-endian and consists of: magic number, format version, name of the variant model, surroundings
+ * size, fingerprint of the samples it was trained on, number of training cases, their dimension, then, aligned to 8
+ * bytes, means, standard deviations, row-major matrix of normalized training cases and one byte per label.
+ */
+public class ModelSnapshot {
+
+    private static final int MAGIC = 0x53434d56; // "VMCS" read as little-endian int
+    private static final int VERSION = 1;
+
+    private final VariantModel variantModel;
+    private final int size;
+    private final long samplesFingerprint;
+    private final NormalizedTrainingSet trainingSet;
+
+    /**
+     * @param variantModel       model the vectors were computed with
+     * @param size               how many pixels were taken from each side of sample center
+     * @param samplesFingerprint fingerprint of the samples the training set was computed from
+     * @param trainingSet        normalized training set
+     */
+    public ModelSnapshot(VariantModel variantModel, int size, long samplesFingerprint, NormalizedTrainingSet trainingSet) {
+        this.variantModel = variantModel;
+        this.size = size;
+        this.samplesFingerprint = samplesFingerprint;
+        this.trainingSet = trainingSet;
+    }
+
+    /**
+     * Computes fingerprint of sample files from their names, lengths and modification times.
+     *
+     * @param samples sample files
+     * @return fingerprint which changes whenever the set of samples changes
+     */
+    public static long fingerprint(File... samples) {
+        final File[] sorted = samples.clone();
+        Arrays.sort(sorted, Comparator.comparing(File::getName));
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (File sample : sorted) {
+            hasher.putString(sample.getName(), StandardCharsets.UTF_8)
+                  .putLong(sample.length())
+                  .putLong(sample.lastModified());
+        }
+        return hasher.hash().asLong();
+    }
+
+    /**
+     * Maps the file into memory and reads the snapshot.
+     *
+     * @param path path to snapshot file
+     * @return loaded snapshot
+     * @throws IOException if the file cannot be read or is not a snapshot in supported version
+     */
+    public static ModelSnapshot read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(path + " is not a model snapshot");
+            }
+            final int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported model snapshot version " + version);
+            }
+            final byte[] name = new byte[buffer.getInt()];
+            buffer.get(name);
+            final VariantModel variantModel;
+            try {
+                variantModel = VariantModel.valueOf(new String(name, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unknown variant model in " + path, e);
+            }
+            final int size = buffer.getInt();
+            final long samplesFingerprint = buffer.getLong();
+            final int count = buffer.getInt();
+            final int dimension = buffer.getInt();
+            align(buffer);
+
+            final double[] means = new double[dimension];
+            final double[] standardDeviations = new double[dimension];
+            final double[] data = new double[count * dimension];
+            final boolean[] labels = new boolean[count];
+            buffer.asDoubleBuffer().get(means).get(standardDeviations).get(data);
+            buffer.position(buffer.position() + (2 * dimension + data.length) * Double.BYTES);
+            for (int i = 0; i < count; i++) {
+                labels[i] = buffer.get() != 0;
+            }
+            final NormalizedTrainingSet trainingSet = new NormalizedTrainingSet(data, labels, means, standardDeviations);
+            return new ModelSnapshot(variantModel, size, samplesFingerprint, trainingSet);
+        } catch (BufferUnderflowException e) {
+            throw new IOException(path + " is truncated", e);
+        }
+    }
+
+    /**
+     * Writes the snapshot. The file is replaced atomically, so readers never see a partially written snapshot.
+     *
+     * @param path path to snapshot file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path path) throws IOException {
+        final byte[] name = variantModel.name().getBytes(StandardCharsets.UTF_8);
+        final int count = trainingSet.size();
+        final int dimension = trainingSet.getDimension();
+        final int headerLength = alignedLength(3 * Integer.BYTES + name.length + Integer.BYTES + Long.BYTES
+                                               + 2 * Integer.BYTES);
+        final int bodyLength = (2 * dimension + count * dimension) * Double.BYTES + count;
+        final ByteBuffer buffer = ByteBuffer.allocate(headerLength + bodyLength).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC)
+              .putInt(VERSION)
+              .putInt(name.length)
+              .put(name)
+              .putInt(size)
+              .putLong(samplesFingerprint)
+              .putInt(count)
+              .putInt(dimension);
+        align(buffer);
+        buffer.asDoubleBuffer()
+              .put(trainingSet.getMeans())
+              .put(trainingSet.getStandardDeviations())
+              .put(trainingSet.getData());
+        buffer.position(buffer.position() + (2 * dimension + count * dimension) * Double.BYTES);
+        for (int i = 0; i < count; i++) {
+            buffer.put((byte) (trainingSet.isVessel(i) ? 1 : 0));
+        }
+        buffer.flip();
+
+        final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Checks whether the snapshot was trained with given parameters.
+     */
+    public boolean matches(VariantModel variantModel, int size, long samplesFingerprint) {
+        return this.variantModel == variantModel && this.size == size && this.samplesFingerprint == samplesFingerprint;
+    }
+
+    public VariantModel getVariantModel() {
+        return variantModel;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getSamplesFingerprint() {
+        return samplesFingerprint;
+    }
+
+    public NormalizedTrainingSet getTrainingSet() {
+        return trainingSet;
+    }
+
+    private static int alignedLength(int length) {
+        return (length + Double.BYTES - 1) / Double.BYTES * Double.BYTES;
+    }
+
+    private static void align(ByteBuffer buffer) {
+        buffer.position(alignedLength(buffer.position()));
+    }
+}
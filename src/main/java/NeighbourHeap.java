@@ -0,0 +1,107 @@
+/**
+ * Bounded max-heap holding the nearest neighbours found so far, the farthest one on top. Meant to be reused between
+ * queries, it does not allocate after construction.
+ */
+public class NeighbourHeap {
+
+    private final int[] indices;
+    private final double[] distances;
+    private int size;
+
+    public NeighbourHeap(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.indices = new int[capacity];
+        this.distances = new double[capacity];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return indices.length;
+    }
+
+    /**
+     * @return distance of the farthest kept neighbour, or infinity if the heap is not full yet
+     */
+    public double worstDistance() {
+        return size < indices.length ? Double.POSITIVE_INFINITY : distances[0];
+    }
+
+    /**
+     * Returns training case index of i-th kept neighbour. Neighbours are not sorted.
+     */
+    public int index(int i) {
+        return indices[i];
+    }
+
+    public double distance(int i) {
+        return distances[i];
+    }
+
+    /**
+     * @return whether the training case is among the kept neighbours
+     */
+    public boolean contains(int index) {
+        for (int i = 0; i < size; i++) {
+            if (indices[i] == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Offers a candidate neighbour. When the heap is full, the candidate replaces the farthest kept neighbour if it is
+     * closer. Of two equally distant candidates the one with lower index is considered closer.
+     *
+     * @param index    training case index
+     * @param distance distance to the query
+     */
+    public void offer(int index, double distance) {
+        if (size < indices.length) {
+            int child = size++;
+            while (child > 0) {
+                final int parent = (child - 1) >>> 1;
+                if (!isFarther(index, distance, indices[parent], distances[parent])) {
+                    break;
+                }
+                indices[child] = indices[parent];
+                distances[child] = distances[parent];
+                child = parent;
+            }
+            indices[child] = index;
+            distances[child] = distance;
+        } else if (isFarther(indices[0], distances[0], index, distance)) {
+            int parent = 0;
+            while (true) {
+                int child = 2 * parent + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && isFarther(indices[child + 1], distances[child + 1], indices[child], distances[child])) {
+                    child++;
+                }
+                if (!isFarther(indices[child], distances[child], index, distance)) {
+                    break;
+                }
+                indices[parent] = indices[child];
+                distances[parent] = distances[child];
+                parent = child;
+            }
+            indices[parent] = index;
+            distances[parent] = distance;
+        }
+    }
+
+    private static boolean isFarther(int index1, double distance1, int index2, double distance2) {
+        return distance1 > distance2 || (distance1 == distance2 && index1 > index2);
+    }
+}
@@ -0,0 +1,26 @@
+/**
+ * Index over normalized training cases finding the nearest neighbours of a vector.
+ */
+public interface NeighbourIndex {
+
+    /**
+     * Finds training cases closest to the given vector in terms of euclidean distance. The heap is cleared first and
+     * then filled with at most its capacity of neighbours, distances are stored squared.
+     *
+     * @param query      normalized vector to find neighbours of
+     * @param neighbours heap receiving training case indices of the neighbours
+     */
+    void nearestNeighbours(double[] query, NeighbourHeap neighbours);
+
+    /**
+     * Finds the nearest neighbours like {@link #nearestNeighbours(double[], NeighbourHeap)}, but starts from the
+     * training cases already in the heap, with distances computed for this query. Good candidates, like neighbours of
+     * an adjacent pixel, let the search skip most of the training cases.
+     *
+     * @param query      normalized vector to find neighbours of
+     * @param neighbours heap with candidates, receiving training case indices of the neighbours
+     */
+    default void refineNeighbours(double[] query, NeighbourHeap neighbours) {
+        nearestNeighbours(query, neighbours);
+    }
+}
@@ -1,16 +1,19 @@
-import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Represents collection of training cases after normalization.
+ * Represents collection of training cases after normalization. Attributes of all training cases are kept in one
+ * contiguous row-major matrix.
  *
  * @author Krzysztof Tomczak
  */
 public class NormalizedTrainingSet {
 
-    private final List<TrainingVector> trainingVectors;
-    private final List<Double> means;
-    private final List<Double> standardDeviations;
+    private final int size;
+    private final int dimension;
+    private final double[] data;
+    private final boolean[] labels;
+    private final double[] means;
+    private final double[] standardDeviations;
 
     /**
      * Creates new NormalizedTrainingSet containing normalized copy of given training cases.
@@ -18,22 +21,79 @@ public class NormalizedTrainingSet {
      * @param trainingVectors list of training cases
      */
     public NormalizedTrainingSet(List<TrainingVector> trainingVectors) {
-        this.trainingVectors = new ArrayList<>(trainingVectors);
-        this.means = StatisticUtils.means(this.trainingVectors);
-        this.standardDeviations = StatisticUtils.standardDeviations(this.trainingVectors, means);
-        this.trainingVectors.forEach((trainingVector) -> trainingVector.normalize(means, standardDeviations));
+        this.size = trainingVectors.size();
+        this.dimension = trainingVectors.get(0).getVectorData().size();
+        this.data = new double[size * dimension];
+        this.labels = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            final TrainingVector trainingVector = trainingVectors.get(i);
+            final List<Double> vectorData = trainingVector.getVectorData();
+            for (int attr = 0; attr < dimension; attr++) {
+                data[i * dimension + attr] = vectorData.get(attr);
+            }
+            labels[i] = trainingVector.isVessel();
+        }
+        this.means = StatisticUtils.means(data, dimension);
+        this.standardDeviations = StatisticUtils.standardDeviations(data, dimension, means);
+        for (int offset = 0; offset < data.length; offset += dimension) {
+            StatisticUtils.normalize(data, offset, means, standardDeviations);
+        }
     }
 
-    public List<Double> getMeans() {
+    /**
+     * Creates new NormalizedTrainingSet from already normalized training cases.
+     *
+     * @param data               row-major matrix of normalized attributes, as many rows as there are labels
+     * @param labels             whether each training case is a vessel
+     * @param means              means the training cases were normalized with
+     * @param standardDeviations standard deviations the training cases were normalized with
+     */
+    public NormalizedTrainingSet(double[] data, boolean[] labels, double[] means, double[] standardDeviations) {
+        if (means.length != standardDeviations.length || data.length != labels.length * means.length) {
+            throw new IllegalArgumentException("Inconsistent training set dimensions");
+        }
+        this.size = labels.length;
+        this.dimension = means.length;
+        this.data = data;
+        this.labels = labels;
+        this.means = means;
+        this.standardDeviations = standardDeviations;
+    }
+
+    public double[] getMeans() {
         return means;
     }
 
-    public List<Double> getStandardDeviations() {
+    public double[] getStandardDeviations() {
         return standardDeviations;
     }
 
-    public List<TrainingVector> getTrainingVectors() {
-        return trainingVectors;
+    /**
+     * @return number of training cases
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of attributes of each training case
+     */
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Returns normalized attributes of all training cases. Attribute j of training case i is stored at index
+     * i * dimension + j. The array is shared and must not be modified.
+     *
+     * @return row-major matrix of normalized attributes
+     */
+    public double[] getData() {
+        return data;
+    }
+
+    public boolean isVessel(int index) {
+        return labels[index];
     }
 
 }
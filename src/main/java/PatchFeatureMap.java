@@ -0,0 +1,32 @@
+import org.opencv.core.Mat;
+
+/**
+ * Computes vector of each pixel separately, by passing its surroundings to the variant model. The image is padded
+ * with black once, so that surroundings of every pixel, also near image borders, are a view into the padded image
+ * at the same offset, without copying pixels or checking borders.
+ */
+public class PatchFeatureMap implements FeatureMap {
+
+    private final AbstractVariantModel variantModel;
+    private final Mat padded;
+    private final int side;
+
+    public PatchFeatureMap(AbstractVariantModel variantModel, Mat image, int size) {
+        this.variantModel = variantModel;
+        this.padded = ImageUtils.addBlackBorder(image, size);
+        this.side = 2 * size + 1;
+    }
+
+    @Override
+    public void getVector(int x, int y, double[] vector) {
+        // Pixel (x, y) of the image is pixel (x + size, y + size) of the padded image
+        final Mat surrounding = padded.submat(y, y + side, x, x + side);
+        variantModel.getVector(surrounding, vector);
+        surrounding.release();
+    }
+
+    @Override
+    public void release() {
+        padded.release();
+    }
+}
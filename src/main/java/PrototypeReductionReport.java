@@ -0,0 +1,109 @@
+import org.opencv.core.Mat;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Compares the classifier trained on all samples with the one trained on prototypes selected by
+ * {@link PrototypeReduction}, on every image of a test directory, to check that the reduction does not lose accuracy.
+ * <p>
+ * Prints sizes of both training sets, time of the reduction, and for each image time of classification and accuracy
+ * of both classifiers against the manual segmentation, followed by averages over all images. Images without a manual
+ * segmentation are skipped.
+ */
+public class PrototypeReductionReport {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Proper arguments: <Training dir containing 'images', 'manuals' and 'masks' subdirs>" +
+                                                 " <Test dir containing 'images', 'manuals' and 'masks' subdirs>");
+            System.exit(1);
+        }
+        String trainingDir = args[0];
+        String testDir = args[1];
+        File[] images = Paths.get(testDir, "images").toFile().listFiles();
+        if (images == null) {
+            throw new IllegalArgumentException(testDir + " does not contain 'images' directory");
+        }
+        Arrays.sort(images);
+
+        Application app = new Application();
+        ModelSnapshot model = app.trainModel(trainingDir);
+        long start = System.nanoTime();
+        ModelSnapshot reducedModel = app.reduceModel(model, trainingDir);
+        long reductionTime = System.nanoTime() - start;
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Training set of %d cases reduced to %d prototypes in %.1f ms%n%n",
+                                    model.getTrainingSet().size(), reducedModel.getTrainingSet().size(),
+                                    reductionTime / 1e6));
+
+        AbstractClassifier fullClassifier = app.createClassifier(model);
+        AbstractClassifier reducedClassifier = app.createClassifier(reducedModel);
+        ClassificationEngine fullEngine = app.createEngine(fullClassifier);
+        ClassificationEngine reducedEngine = app.createEngine(reducedClassifier);
+        double fullAccuracy = 0;
+        double reducedAccuracy = 0;
+        long fullTime = 0;
+        long reducedTime = 0;
+        int comparedImages = 0;
+        try {
+            for (File image : images) {
+                String workingFile = image.getAbsolutePath();
+                if (app.getCorrespondingFile(workingFile, "manuals") == null) {
+                    System.out.println("Skipping image " + image.getName() + " without manual");
+                    continue;
+                }
+                Mat preprocessed = null;
+                Mat mask = null;
+                Mat manual = null;
+                Mat full = null;
+                Mat reduced = null;
+                try {
+                    preprocessed = app.loadImage(workingFile);
+                    mask = app.loadCorrespondingImage(workingFile, "masks");
+                    manual = app.loadCorrespondingImage(workingFile, "manuals");
+
+                    start = System.nanoTime();
+                    full = app.classify(fullEngine, workingFile, preprocessed, mask);
+                    long fullImageTime = System.nanoTime() - start;
+                    start = System.nanoTime();
+                    reduced = app.classify(reducedEngine, workingFile, preprocessed, mask);
+                    long reducedImageTime = System.nanoTime() - start;
+
+                    ConfusionMatrix fullMatrix = StatisticUtils.computeConfusionMatrix(manual, full);
+                    ConfusionMatrix reducedMatrix = StatisticUtils.computeConfusionMatrix(manual, reduced);
+                    report.append(String.format("%s%nFull: %.1f ms, accuracy %.3f%%%n" +
+                                                "Reduced: %.1f ms, accuracy %.3f%%%n%n",
+                                                image.getName(), fullImageTime / 1e6, 100 * fullMatrix.getAccuracy(),
+                                                reducedImageTime / 1e6, 100 * reducedMatrix.getAccuracy()));
+                    fullAccuracy += fullMatrix.getAccuracy();
+                    reducedAccuracy += reducedMatrix.getAccuracy();
+                    fullTime += fullImageTime;
+                    reducedTime += reducedImageTime;
+                    comparedImages++;
+                } finally {
+                    // Native memory of the images is freed now rather than whenever they are finalized
+                    for (Mat mat : new Mat[]{preprocessed, mask, manual, full, reduced}) {
+                        if (mat != null) {
+                            mat.release();
+                        }
+                    }
+                }
+            }
+        } finally {
+            fullEngine.shutdown();
+            reducedEngine.shutdown();
+            fullClassifier.release();
+            reducedClassifier.release();
+        }
+        if (comparedImages > 0) {
+            report.append(String.format("Average over %d images%nFull: %.1f ms, accuracy %.3f%%%n" +
+                                        "Reduced: %.1f ms, accuracy %.3f%%%n",
+                                        comparedImages, fullTime / 1e6 / comparedImages,
+                                        100 * fullAccuracy / comparedImages, reducedTime / 1e6 / comparedImages,
+                                        100 * reducedAccuracy / comparedImages));
+        }
+        System.out.println(report);
+    }
+}
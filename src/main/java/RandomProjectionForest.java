@@ -0,0 +1,162 @@
+import java.util.Random;
+
+/**
+ * Forest of random projection trees built over the training cases. Finds approximate nearest neighbours: every tree
+ * splits the training cases at the median of their projections on random directions, and only training cases sharing
+ * a leaf with the query in at least one tree are considered. More trees find more of the true neighbours at the cost
+ * of computing more distances.
+ */
+public class RandomProjectionForest implements NeighbourIndex {
+
+    private final int dimension;
+    private final double[] data;
+    private final int firstLeaf;
+    private final int[][] orders;
+    private final double[][] directions;
+    private final double[][] splitValues;
+
+    /**
+     * @param trainingSet   normalized training cases
+     * @param numberOfTrees number of trees, should be positive
+     * @param leafSize      maximum number of training cases in a leaf, should be positive
+     * @param seed          seed of the random directions, the same seed gives the same forest
+     */
+    public RandomProjectionForest(NormalizedTrainingSet trainingSet, int numberOfTrees, int leafSize, long seed) {
+        if (numberOfTrees <= 0 || leafSize <= 0) {
+            throw new IllegalArgumentException("Number of trees and leaf size must be positive");
+        }
+        final int size = trainingSet.size();
+        this.dimension = trainingSet.getDimension();
+        this.data = trainingSet.getData();
+        // Complete binary trees stored in arrays, children of node n are 2n+1 and 2n+2
+        int leaves = 1;
+        while (size / leaves > leafSize) {
+            leaves *= 2;
+        }
+        this.firstLeaf = leaves - 1;
+        this.orders = new int[numberOfTrees][size];
+        this.directions = new double[numberOfTrees][firstLeaf * dimension];
+        this.splitValues = new double[numberOfTrees][firstLeaf];
+        final Random random = new Random(seed);
+        final double[] projections = new double[size];
+        for (int tree = 0; tree < numberOfTrees; tree++) {
+            for (int i = 0; i < size; i++) {
+                orders[tree][i] = i;
+            }
+            build(tree, 0, 0, size, projections, random);
+        }
+    }
+
+    /**
+     * Finds training cases closest to the given vector among the candidates from its leaves. Ties are resolved in
+     * favour of the training case which comes first in the training set.
+     */
+    @Override
+    public void nearestNeighbours(double[] query, NeighbourHeap neighbours) {
+        neighbours.clear();
+        refineNeighbours(query, neighbours);
+    }
+
+    @Override
+    public void refineNeighbours(double[] query, NeighbourHeap neighbours) {
+        for (int tree = 0; tree < orders.length; tree++) {
+            final int[] order = orders[tree];
+            int node = 0;
+            int from = 0;
+            int to = order.length;
+            while (node < firstLeaf) {
+                final int middle = (from + to) >>> 1;
+                if (project(query, 0, directions[tree], node * dimension) < splitValues[tree][node]) {
+                    node = 2 * node + 1;
+                    to = middle;
+                } else {
+                    node = 2 * node + 2;
+                    from = middle;
+                }
+            }
+            for (int i = from; i < to; i++) {
+                final double worst = neighbours.worstDistance();
+                final double distance = DistanceKernel.squaredDistance(query, data, order[i] * dimension, dimension,
+                                                                       worst);
+                // The same training case may come from several trees
+                if (distance <= worst && !neighbours.contains(order[i])) {
+                    neighbours.offer(order[i], distance);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of trees of the forest
+     */
+    public int getNumberOfTrees() {
+        return orders.length;
+    }
+
+    private void build(int tree, int node, int from, int to, double[] projections, Random random) {
+        if (node >= firstLeaf) {
+            return;
+        }
+        final int[] order = orders[tree];
+        final double[] direction = directions[tree];
+        final int offset = node * dimension;
+        for (int attr = 0; attr < dimension; attr++) {
+            direction[offset + attr] = random.nextGaussian();
+        }
+        for (int i = from; i < to; i++) {
+            projections[i] = project(data, order[i] * dimension, direction, offset);
+        }
+        final int middle = (from + to) >>> 1;
+        select(order, projections, from, to, middle);
+        splitValues[tree][node] = to > from ? projections[middle] : 0;
+        build(tree, 2 * node + 1, from, middle, projections, random);
+        build(tree, 2 * node + 2, middle, to, projections, random);
+    }
+
+    /**
+     * Partially sorts the range by projections, moving training case indices along, so that the element at position k
+     * is the one which would be there after sorting.
+     */
+    private static void select(int[] order, double[] projections, int from, int to, int k) {
+        int left = from;
+        int right = to - 1;
+        while (left < right) {
+            final double pivot = projections[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (projections[i] < pivot) {
+                    i++;
+                }
+                while (projections[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    final int swappedIndex = order[i];
+                    order[i] = order[j];
+                    order[j] = swappedIndex;
+                    final double swappedProjection = projections[i];
+                    projections[i] = projections[j];
+                    projections[j] = swappedProjection;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private double project(double[] vector, int vectorOffset, double[] direction, int directionOffset) {
+        double sum = 0;
+        for (int attr = 0; attr < dimension; attr++) {
+            sum += vector[vectorOffset + attr] * direction[directionOffset + attr];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,186 @@
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Training samples packed into one append-only file instead of one image file per sample.
+ * <p>
+ * The file starts with a little-endian header: magic number, format version, width, height and number of channels of
+ * the samples. It is followed by fixed-size records, each being one label byte and raw 8-bit pixels of the sample, row
+ * by row. Since all records have the same size, position of any record is computed from its index and the number of
+ * records from the file length, so appending never rewrites earlier parts of the file. An incomplete record at the end,
+ * left by an interrupted write, is ignored.
+ */
+public class SampleArchive {
+
+    private static final int MAGIC = 0x41534356; // "VCSA" read as little-endian int
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 5 * Integer.BYTES;
+
+    private final MappedByteBuffer buffer;
+    private final int width;
+    private final int height;
+    private final int channels;
+    private final int recordLength;
+    private final int size;
+
+    private SampleArchive(MappedByteBuffer buffer, int width, int height, int channels) {
+        this.buffer = buffer;
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.recordLength = 1 + width * height * channels;
+        this.size = (buffer.capacity() - HEADER_LENGTH) / recordLength;
+    }
+
+    /**
+     * Maps the archive into memory.
+     *
+     * @param path path to archive file
+     * @return archive ready for reading
+     * @throws IOException if the file cannot be read or is not a sample archive in supported version
+     */
+    public static SampleArchive open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.capacity() < HEADER_LENGTH || buffer.getInt() != MAGIC) {
+                throw new IOException(path + " is not a sample archive");
+            }
+            final int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported sample archive version " + version);
+            }
+            return new SampleArchive(buffer, buffer.getInt(), buffer.getInt(), buffer.getInt());
+        }
+    }
+
+    /**
+     * @return number of samples in the archive
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isVessel(int index) {
+        return buffer.get(recordOffset(index)) != 0;
+    }
+
+    /**
+     * Reads pixels of a sample.
+     *
+     * @param index index of the sample
+     * @return new image with the sample
+     */
+    public Mat getSample(int index) {
+        final byte[] pixels = new byte[recordLength - 1];
+        final ByteBuffer record = buffer.duplicate();
+        record.position(recordOffset(index) + 1);
+        record.get(pixels);
+        final Mat sample = new Mat(height, width, CvType.CV_8UC(channels));
+        sample.put(0, 0, pixels);
+        return sample;
+    }
+
+    private int recordOffset(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Invalid sample index: " + index);
+        }
+        return HEADER_LENGTH + index * recordLength;
+    }
+
+    /**
+     * Appends samples to an archive, creating it if it does not exist. Safe for use from many threads.
+     */
+    public static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final int width;
+        private final int height;
+        private final int channels;
+        private final byte[] pixels;
+        private final ByteBuffer record;
+
+        /**
+         * @param path     path to archive file
+         * @param width    width of samples
+         * @param height   height of samples
+         * @param channels number of channels of samples
+         * @throws IOException if the file cannot be opened or contains samples of different size
+         */
+        public Writer(Path path, int width, int height, int channels) throws IOException {
+            this.width = width;
+            this.height = height;
+            this.channels = channels;
+            this.pixels = new byte[width * height * channels];
+            this.record = ByteBuffer.allocate(1 + pixels.length);
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                            StandardOpenOption.WRITE);
+            try {
+                initialize(path);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private void initialize(Path path) throws IOException {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.size() == 0) {
+                header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(channels).flip();
+                writeFully(header);
+                return;
+            }
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read the whole header
+            }
+            header.flip();
+            if (header.remaining() < HEADER_LENGTH || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(path + " is not a sample archive");
+            }
+            if (header.getInt() != width || header.getInt() != height || header.getInt() != channels) {
+                throw new IOException(path + " contains samples of different size");
+            }
+            // Drop an incomplete record left by an interrupted write
+            final long records = (channel.size() - HEADER_LENGTH) / record.capacity();
+            channel.truncate(HEADER_LENGTH + records * record.capacity());
+            channel.position(channel.size());
+        }
+
+        /**
+         * Appends a sample.
+         *
+         * @param sample   image of the sample, of the size given when opening the archive
+         * @param isVessel whether the center of the sample belongs to a vessel
+         * @throws IOException if the sample cannot be written
+         */
+        public synchronized void append(Mat sample, boolean isVessel) throws IOException {
+            if (sample.width() != width || sample.height() != height || sample.channels() != channels) {
+                throw new IllegalArgumentException("Sample size differs from archive sample size");
+            }
+            sample.get(0, 0, pixels);
+            record.clear();
+            record.put((byte) (isVessel ? 1 : 0)).put(pixels).flip();
+            writeFully(record);
+        }
+
+        private void writeFully(ByteBuffer data) throws IOException {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            channel.force(true);
+            channel.close();
+        }
+    }
+}
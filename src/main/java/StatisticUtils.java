@@ -1,13 +1,12 @@
 import org.opencv.core.Mat;
 
 import java.io.BufferedWriter;
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * Collection of statistical utility functions.
@@ -21,13 +20,27 @@ public class StatisticUtils {
      * length.
      *
      * @param values             list of values to normalize
-     * @param means              list of means
-     * @param standardDeviations list of standard deviations
+     * @param means              array of means
+     * @param standardDeviations array of standard deviations
      */
-    public static void normalize(List<Double> values, List<Double> means, List<Double> standardDeviations) {
+    public static void normalize(List<Double> values, double[] means, double[] standardDeviations) {
         for (int i = 0; i < values.size(); i++) {
-            final Double normalizedValue = normalize(values.get(i), means.get(i), standardDeviations.get(i));
-            values.set(i, normalizedValue);
+            values.set(i, normalize(values.get(i), means[i], standardDeviations[i]));
+        }
+    }
+
+    /**
+     * Normalizes in place one vector stored in an array, starting at given offset. The vector is as long as the means
+     * and standard deviations arrays.
+     *
+     * @param values             array containing vector to normalize
+     * @param offset             index of the first value of the vector
+     * @param means              array of means
+     * @param standardDeviations array of standard deviations
+     */
+    public static void normalize(double[] values, int offset, double[] means, double[] standardDeviations) {
+        for (int i = 0; i < means.length; i++) {
+            values[offset + i] = normalize(values[offset + i], means[i], standardDeviations[i]);
         }
     }
 
@@ -39,26 +52,27 @@ public class StatisticUtils {
      * @param standardDeviation standard deviation to normalize with
      * @return normalized value
      */
-    public static Double normalize(Double value, Double mean, Double standardDeviation) {
+    public static double normalize(double value, double mean, double standardDeviation) {
         return (value - mean) / standardDeviation;
     }
 
     /**
      * Calculates mean for each attribute in training cases.
      *
-     * @param trainingVectors list of training cases
-     * @return list of means for each attribute in training cases
+     * @param data      row-major matrix of training cases
+     * @param dimension number of attributes of each training case
+     * @return array of means for each attribute in training cases
      */
-    public static List<Double> means(List<TrainingVector> trainingVectors) {
-        final int numberOfAttributes = trainingVectors.get(0).getVectorData().size();
-        final List<Double> means = new ArrayList<>(numberOfAttributes);
-
-        for (int i = 0; i < numberOfAttributes; i++) {
-            double sum = 0;
-            for (TrainingVector trainingVector : trainingVectors) {
-                sum += trainingVector.getVectorData().get(i);
+    public static double[] means(double[] data, int dimension) {
+        final double[] means = new double[dimension];
+
+        for (int offset = 0; offset < data.length; offset += dimension) {
+            for (int i = 0; i < dimension; i++) {
+                means[i] += data[offset + i];
             }
-            means.add(sum / numberOfAttributes);
+        }
+        for (int i = 0; i < dimension; i++) {
+            means[i] /= dimension;
         }
         return means;
     }
@@ -66,72 +80,115 @@ public class StatisticUtils {
     /**
      * Calculates standard deviation for each attribute in training cases.
      *
-     * @param trainingVectors list of training cases
-     * @param means           list of means for each attribute in training cases
-     * @return list of standard deviations for each attribute in training cases
+     * @param data      row-major matrix of training cases
+     * @param dimension number of attributes of each training case
+     * @param means     array of means for each attribute in training cases
+     * @return array of standard deviations for each attribute in training cases
      */
-    public static List<Double> standardDeviations(List<TrainingVector> trainingVectors, List<Double> means) {
-        final int numberOfAttributes = trainingVectors.get(0).getVectorData().size();
-        final List<Double> standardDeviations = new ArrayList<>(numberOfAttributes);
-
-        for (int i = 0; i < numberOfAttributes; i++) {
-            double sumOfSquaredDeviations = 0;
-            for (TrainingVector trainingVector : trainingVectors) {
-                final Double deviation = trainingVector.getVectorData().get(i) - means.get(i);
-                sumOfSquaredDeviations += deviation * deviation;
+    public static double[] standardDeviations(double[] data, int dimension, double[] means) {
+        final double[] standardDeviations = new double[dimension];
+
+        for (int offset = 0; offset < data.length; offset += dimension) {
+            for (int i = 0; i < dimension; i++) {
+                final double deviation = data[offset + i] - means[i];
+                standardDeviations[i] += deviation * deviation;
             }
-            standardDeviations.add(Math.sqrt(sumOfSquaredDeviations / numberOfAttributes));
+        }
+        for (int i = 0; i < dimension; i++) {
+            standardDeviations[i] = Math.sqrt(standardDeviations[i] / dimension);
         }
         return standardDeviations;
     }
 
+    /**
+     * Computes mean squared error between two binary masks, which for binary masks is the fraction of pixels they
+     * differ at.
+     *
+     * @param referenceMask reference mask, white where vessels are
+     * @param resultMask    mask to evaluate, of the same size and type as the reference
+     * @return mean squared error
+     */
     public static double computeMeanSquaredError(Mat referenceMask, Mat resultMask) {
-        int nominator = 0;
-        int denominator = 0;
-        for (int y = 0; y < referenceMask.height(); ++y) {
-            for (int x = 0; x < referenceMask.width(); ++x) {
-                nominator += Math.pow(ImageUtils.isWhiteInt(referenceMask.get(y, x)) - ImageUtils.isWhiteInt(resultMask.get(y, x)), 2);
-                ++denominator;
-            }
-        }
-        return (double) nominator / denominator;
+        return computeConfusionMatrix(referenceMask, resultMask).getMeanSquaredError();
     }
 
+    /**
+     * Compares two binary masks in a single pass over their pixels, splitting rows between threads. Pixel belongs to
+     * a vessel if all its channels are white.
+     *
+     * @param referenceMask reference mask, white where vessels are
+     * @param resultMask    mask to evaluate, of the same size and type as the reference
+     * @return confusion matrix of the result with respect to the reference
+     */
     public static ConfusionMatrix computeConfusionMatrix(Mat referenceMask, Mat resultMask) {
-        int truePositiveAmount = 0;
-        int trueNegativeAmount = 0;
-        int falsePositiveAmount = 0;
-        int falseNegativeAmount = 0;
-
-        for (int y = 0; y < referenceMask.height(); ++y) {
-            for (int x = 0; x < referenceMask.width(); ++x) {
-                boolean referenceIsVessel = ImageUtils.isWhite(referenceMask.get(y,x));
-                boolean resultIsVessel = ImageUtils.isWhite(resultMask.get(y,x));
-                if (referenceIsVessel && resultIsVessel) {
-                    ++truePositiveAmount;
-                } else if (!referenceIsVessel && !resultIsVessel) {
-                    ++trueNegativeAmount;
-                } else if (referenceIsVessel) {
-                    ++falseNegativeAmount;
-                } else {
-                    ++falsePositiveAmount;
-                }
-            }
+        if (referenceMask.width() != resultMask.width() || referenceMask.height() != resultMask.height()
+                || referenceMask.channels() != resultMask.channels()) {
+            throw new IllegalArgumentException("Masks differ in size or number of channels");
         }
+        final int channels = referenceMask.channels();
+        final int rowLength = referenceMask.width() * channels;
+        final byte[] reference = new byte[rowLength * referenceMask.height()];
+        referenceMask.get(0, 0, reference);
+        final byte[] result = new byte[reference.length];
+        resultMask.get(0, 0, result);
+
+        // TP, TN, FP, FN
+        final long[] counts = IntStream.range(0, referenceMask.height()).parallel().collect(
+                () -> new long[4],
+                (accumulator, row) -> {
+                    final int rowEnd = (row + 1) * rowLength;
+                    for (int offset = row * rowLength; offset < rowEnd; offset += channels) {
+                        final boolean referenceIsVessel = isWhite(reference, offset, channels);
+                        final boolean resultIsVessel = isWhite(result, offset, channels);
+                        if (referenceIsVessel && resultIsVessel) {
+                            ++accumulator[0];
+                        } else if (!referenceIsVessel && !resultIsVessel) {
+                            ++accumulator[1];
+                        } else if (referenceIsVessel) {
+                            ++accumulator[3];
+                        } else {
+                            ++accumulator[2];
+                        }
+                    }
+                },
+                (accumulator, other) -> {
+                    for (int i = 0; i < accumulator.length; i++) {
+                        accumulator[i] += other[i];
+                    }
+                });
+
+        return new ConfusionMatrix((int) counts[0], (int) counts[1], (int) counts[2], (int) counts[3]);
+    }
 
-        return new ConfusionMatrix(truePositiveAmount, trueNegativeAmount, falsePositiveAmount, falseNegativeAmount);
+    private static boolean isWhite(byte[] pixels, int offset, int channels) {
+        for (int channel = 0; channel < channels; channel++) {
+            if (pixels[offset + channel] != (byte) 255) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public static void writeStatistics(Mat referenceMask, Mat resultMask, String pathToFile) {
-        final double meanSquaredError = computeMeanSquaredError(referenceMask, resultMask);
         final ConfusionMatrix confusionMatrix = computeConfusionMatrix(referenceMask, resultMask);
         final Path path = Paths.get(pathToFile);
         try (BufferedWriter writer = Files.newBufferedWriter(path)) {
-            writer.write("Mean square error ");
-            writer.write(String.valueOf(meanSquaredError) + "\n");
-            writer.write(confusionMatrix.toString());
+            writer.write(formatStatistics(confusionMatrix));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
+
+    /**
+     * @return statistics of the confusion matrix, one per line, in the format of statistics files
+     */
+    public static String formatStatistics(ConfusionMatrix confusionMatrix) {
+        return "Mean square error " + confusionMatrix.getMeanSquaredError() + "\n" +
+               confusionMatrix.toString() + "\n" +
+               "Sensitivity " + confusionMatrix.getSensitivity() + "\n" +
+               "Specificity " + confusionMatrix.getSpecificity() + "\n" +
+               "Accuracy " + confusionMatrix.getAccuracy() + "\n" +
+               "Dice " + confusionMatrix.getDiceCoefficient() + "\n" +
+               "MCC " + confusionMatrix.getMatthewsCorrelationCoefficient() + "\n";
+    }
 }
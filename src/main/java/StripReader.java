@@ -0,0 +1,97 @@
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Reads horizontal strips of an image file without decoding the whole image into memory. TIFF images, like the field
+ * of view masks, are read with the TIFF plugin of ImageIO, as Java 8 has no TIFF reader of its own.
+ * <p>
+ * Formats which can not seek to a row, like JPEG, are decoded from the top for every strip, trading time for memory:
+ * reading all strips takes time growing with the square of the image height divided by the strip height, so taller
+ * strips read faster. JPEG decoder of ImageIO also differs slightly from the one of OpenCV, some channel values of the
+ * same image differ by a few levels from the ones read by {@link org.opencv.imgcodecs.Imgcodecs#imread}.
+ *
+ * @see TiledImageClassifier
+ */
+public class StripReader implements AutoCloseable {
+
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+
+    /**
+     * @param file image file in a format supported by {@link ImageIO}
+     * @throws IOException if the file cannot be read or there is no reader of its format
+     */
+    public StripReader(File file) throws IOException {
+        this.input = ImageIO.createImageInputStream(file);
+        if (input == null) {
+            throw new IOException("Could not open " + file);
+        }
+        final Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("No reader of the format of " + file);
+        }
+        this.reader = readers.next();
+        reader.setInput(input, true, true);
+        this.width = reader.getWidth(0);
+        this.height = reader.getHeight(0);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Reads rows of the image as BGR image, 8 bits per channel, in the layout of
+     * {@link org.opencv.imgcodecs.Imgcodecs#imread}.
+     *
+     * @param top    first row, inclusive
+     * @param bottom last row, exclusive
+     * @return strip of the image
+     * @throws IOException if the image cannot be decoded
+     */
+    public Mat read(int top, int bottom) throws IOException {
+        if (top < 0 || bottom > height || top >= bottom) {
+            throw new IllegalArgumentException("Invalid rows " + top + " to " + bottom + " of " + height);
+        }
+        final ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(0, top, width, bottom - top));
+        BufferedImage strip = reader.read(0, param);
+        if (strip.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            final BufferedImage converted = new BufferedImage(strip.getWidth(), strip.getHeight(),
+                                                              BufferedImage.TYPE_3BYTE_BGR);
+            final Graphics2D graphics = converted.createGraphics();
+            graphics.drawImage(strip, 0, 0, null);
+            graphics.dispose();
+            strip = converted;
+        }
+        final byte[] pixels = ((DataBufferByte) strip.getRaster().getDataBuffer()).getData();
+        final Mat mat = new Mat(strip.getHeight(), strip.getWidth(), CvType.CV_8UC3);
+        mat.put(0, 0, pixels);
+        return mat;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.dispose();
+        input.close();
+    }
+}
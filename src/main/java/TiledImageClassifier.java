@@ -0,0 +1,175 @@
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Classifies images too large to be decoded into memory at once. The image is read in horizontal strips, each with a
+ * halo of rows above and below as large as the surroundings of a pixel, so that pixels near strip boundaries are
+ * classified the same as in the whole image. The halo is left out of the field of view of the strip, so its rows give
+ * their pixels to the surroundings of the others but are not classified themselves. Decisions of each strip are appended to the result file before the next
+ * strip is read, so memory taken is bounded by the size of a strip instead of the size of the image.
+ * <p>
+ * Preprocessing is the same as in {@link Application}: green channel is equalized, with the histogram collected from
+ * all strips in a first pass. The result is written as a binary PGM image, which can be written row by row.
+ * <p>
+ * JPEG images are decoded from the top for every strip, twice per strip counting the histogram pass, and their pixels
+ * differ slightly from the ones decoded by OpenCV, so a few decisions may differ from {@link Application}, see
+ * {@link StripReader}.
+ */
+public class TiledImageClassifier {
+
+    public static final int DEFAULT_STRIP_HEIGHT = 256;
+
+    private final ClassificationEngine engine;
+    private final int size;
+    private final int stripHeight;
+
+    /**
+     * @param engine      engine classifying the strips
+     * @param size        how many pixels are taken from each side of a pixel to compute its vector
+     * @param stripHeight how many rows are classified at once, without the halo
+     */
+    public TiledImageClassifier(ClassificationEngine engine, int size, int stripHeight) {
+        if (stripHeight <= 0) {
+            throw new IllegalArgumentException("Strip height must be positive: " + stripHeight);
+        }
+        this.engine = engine;
+        this.size = size;
+        this.stripHeight = stripHeight;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Proper arguments: <Training dir containing 'images', 'manuals' and 'masks' subdirs>" +
+                                                 " <image_to_classify> [strip height]");
+            System.exit(1);
+        }
+        String trainingDir = args[0];
+        String workingFile = args[1];
+        int stripHeight = args.length == 3 ? Integer.parseInt(args[2]) : DEFAULT_STRIP_HEIGHT;
+
+        Application app = new Application();
+        AbstractClassifier classifier = app.trainClassifier(trainingDir);
+        ClassificationEngine engine = app.createEngine(classifier);
+        try {
+            File mask = app.getCorrespondingFile(workingFile, "masks");
+            File image = new File(workingFile);
+            Path resultsPath = Paths.get(image.getAbsoluteFile().getParentFile().getParent(), "results");
+            Files.createDirectories(resultsPath);
+            File result = resultsPath.resolve(com.google.common.io.Files.getNameWithoutExtension(workingFile) + ".pgm")
+                                     .toFile();
+            System.out.println("Processing image " + workingFile + " in strips of " + stripHeight + " rows");
+            new TiledImageClassifier(engine, app.getSize(), stripHeight).classify(image, mask, result);
+            System.out.println("Saved result mask " + result);
+        } finally {
+            engine.shutdown();
+            classifier.release();
+        }
+    }
+
+    /**
+     * Classifies pixels of the image inside the field of view and writes the result mask.
+     *
+     * @param image  image to classify
+     * @param mask   field of view mask of the same size, or null to classify all pixels
+     * @param result file receiving the result mask, white where vessels were found
+     * @throws IOException if the images cannot be read or the result cannot be written
+     */
+    public void classify(File image, File mask, File result) throws IOException {
+        try (StripReader imageReader = new StripReader(image);
+             StripReader maskReader = mask != null ? new StripReader(mask) : null;
+             OutputStream output = new BufferedOutputStream(Files.newOutputStream(result.toPath()))) {
+            final int width = imageReader.getWidth();
+            final int height = imageReader.getHeight();
+            if (maskReader != null && (maskReader.getWidth() != width || maskReader.getHeight() != height)) {
+                throw new IllegalArgumentException("Field of view mask size differs from image size");
+            }
+            final byte[] equalization = equalizationTable(imageReader);
+            output.write(String.format("P5%n%d %d%n255%n", width, height).getBytes(StandardCharsets.US_ASCII));
+
+            final Metrics.Progress progress = Metrics.get().startProgress("Tiled classification of " + image.getName(),
+                                                                          height);
+            try {
+                for (int top = 0; top < height; top += stripHeight) {
+                    final int bottom = Math.min(height, top + stripHeight);
+                    final int haloTop = Math.max(0, top - size);
+                    final int haloBottom = Math.min(height, bottom + size);
+                    final Mat strip = imageReader.read(haloTop, haloBottom);
+                    ImageUtils.applyToGreen(strip, equalization);
+                    final Mat stripMask = maskReader != null ? maskReader.read(haloTop, haloBottom) : null;
+                    final Mat fieldOfView = withoutHalo(stripMask, strip, top - haloTop, bottom - haloTop);
+                    final Mat classified;
+                    try {
+                        classified = engine.submit(strip, fieldOfView).get();
+                    } finally {
+                        strip.release();
+                        fieldOfView.release();
+                    }
+                    writeRows(classified, top - haloTop, bottom - top, output);
+                    classified.release();
+                    progress.incrementWorkCount(bottom - top);
+                }
+            } finally {
+                progress.finish();
+            }
+        }
+    }
+
+    /**
+     * Collects histogram of the green channel of the whole image strip by strip.
+     */
+    private byte[] equalizationTable(StripReader reader) throws IOException {
+        final long[] histogram = new long[256];
+        for (int top = 0; top < reader.getHeight(); top += stripHeight) {
+            final Mat strip = reader.read(top, Math.min(reader.getHeight(), top + stripHeight));
+            ImageUtils.addGreenHistogram(strip, histogram);
+            strip.release();
+        }
+        return ImageUtils.equalizationTable(histogram);
+    }
+
+    /**
+     * Returns field of view of the strip limited to its rows between the halos.
+     *
+     * @param stripMask mask of the strip, which becomes the field of view, or null if all pixels are inside
+     * @param strip     strip of the image
+     * @param firstRow  first row of the strip below the upper halo
+     * @param endRow    first row of the lower halo
+     * @return field of view, black in the halos
+     */
+    private static Mat withoutHalo(Mat stripMask, Mat strip, int firstRow, int endRow) {
+        final Scalar black = new Scalar(0, 0, 0);
+        final Mat fieldOfView = stripMask != null ? stripMask
+                                                  : new Mat(strip.height(), strip.width(), CvType.CV_8UC1,
+                                                            new Scalar(255));
+        for (Mat halo : new Mat[]{fieldOfView.rowRange(0, firstRow), fieldOfView.rowRange(endRow, strip.height())}) {
+            halo.setTo(black);
+            halo.release();
+        }
+        return fieldOfView;
+    }
+
+    /**
+     * Writes rows of the result without the halo, one byte per pixel.
+     */
+    private static void writeRows(Mat classified, int firstRow, int rows, OutputStream output) throws IOException {
+        final int width = classified.width();
+        final int channels = classified.channels();
+        final byte[] pixels = new byte[width * rows * channels];
+        classified.get(firstRow, 0, pixels);
+        final byte[] gray = new byte[width * rows];
+        for (int pixel = 0; pixel < gray.length; pixel++) {
+            gray[pixel] = pixels[pixel * channels];
+        }
+        output.write(gray);
+    }
+}
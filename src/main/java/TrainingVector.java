@@ -19,7 +19,7 @@ public class TrainingVector {
         return isVessel;
     }
 
-    public void normalize(List<Double> means, List<Double> standardDeviations) {
+    public void normalize(double[] means, double[] standardDeviations) {
         StatisticUtils.normalize(vectorData, means, standardDeviations);
     }
 }
@@ -0,0 +1,102 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * KNN classifier whose training set can grow while it is in use, e.g. with corrections from graders. Training cases
+ * are added to an {@link IncrementalTrainingSet}, and the classifier is rebuilt over a new snapshot of the training set
+ * the first time it is needed after a change.
+ * <p>
+ * Each query is answered by one version of the classifier. To classify a whole image with one version, use the
+ * classifier returned by {@link #snapshot()}, as {@link ClassificationEngine} does.
+ * <p>
+ * The inherited {@link #trainingSet} is only the version the classifier was created with. All decisions are delegated
+ * to the current snapshot, which reads its own training set.
+ */
+public class UpdatableKNNClassifier extends AbstractClassifier {
+
+    private final IncrementalTrainingSet samples;
+    private final VariantModel variantModel;
+    private final int size;
+    private final short numberOfNeighbours;
+    private volatile Version current;
+
+    /**
+     * @param samples            training cases, possibly growing
+     * @param variantModel       model computing vectors of attributes
+     * @param size               how many pixels were taken from each side of training pixels to compute their vectors
+     * @param numberOfNeighbours how many neighbours vote, must be odd
+     */
+    public UpdatableKNNClassifier(IncrementalTrainingSet samples, VariantModel variantModel, int size,
+                                  short numberOfNeighbours) {
+        super(samples.snapshot());
+        this.samples = samples;
+        this.variantModel = variantModel;
+        this.size = size;
+        this.numberOfNeighbours = numberOfNeighbours;
+        this.current = new Version(samples.getVersion(), new KNNClassifier(trainingSet, variantModel, size,
+                                                                           numberOfNeighbours));
+    }
+
+    /**
+     * Adds a training case, which is taken into account by queries starting after this method returns.
+     *
+     * @param vector   attributes of the training case, not normalized
+     * @param isVessel whether the training case is a vessel
+     * @return version of the training set including the new training case
+     */
+    public long addSample(double[] vector, boolean isVessel) {
+        return samples.add(vector, isVessel);
+    }
+
+    /**
+     * @return version of the training set used by the classifier returned by {@link #snapshot()} last time
+     */
+    public long getVersion() {
+        return current.version;
+    }
+
+    /**
+     * @return classifier trained on the current version of the training set, not affected by later changes
+     */
+    @Override
+    public AbstractClassifier snapshot() {
+        Version version = current;
+        if (version.version != samples.getVersion()) {
+            synchronized (this) {
+                version = current;
+                final long latest = samples.getVersion();
+                if (version.version != latest) {
+                    version = new Version(latest, new KNNClassifier(samples.snapshot(), variantModel, size,
+                                                                    numberOfNeighbours));
+                    current = version;
+                }
+            }
+        }
+        return version.classifier;
+    }
+
+    @Override
+    public void classifyRegion(FeatureMap features, Rect roi, byte[] mask) {
+        snapshot().classifyRegion(features, roi, mask);
+    }
+
+    @Override
+    boolean isVessel(Mat image, int x, int y) {
+        return snapshot().isVessel(image, x, y);
+    }
+
+    @Override
+    boolean isVessel(double[] vector) {
+        return snapshot().isVessel(vector);
+    }
+
+    private static class Version {
+        private final long version;
+        private final AbstractClassifier classifier;
+
+        private Version(long version, AbstractClassifier classifier) {
+            this.version = version;
+            this.classifier = classifier;
+        }
+    }
+}
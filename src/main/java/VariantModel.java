@@ -2,32 +2,61 @@ import org.opencv.core.Mat;
 
 import java.util.ArrayList;
 import java.util.List;
-import org.opencv.imgproc.Imgproc;
-import org.opencv.imgproc.Moments;
 
 public enum VariantModel implements AbstractVariantModel {
 
     DIFFERENTIAL {
         @Override
         public List<Double> getVector(Mat image) {
-//            byte[][] green = ImageUtils.extractGreen(image);
-            // TODO Process extracted green colors and create a vector of attributes
-            System.out.println("Debug");
-            return new ArrayList<>();
+            final double[] vector = new double[DifferentialFeatureMap.NUMBER_OF_FEATURES];
+            getVector(image, vector);
+            final List<Double> result = new ArrayList<>();
+            for (double attribute : vector) {
+                result.add(attribute);
+            }
+            return result;
+        }
+
+        @Override
+        public void getVector(Mat image, double[] vector) {
+            DifferentialFeatureMap.getCentralVector(image, vector);
+        }
+
+        @Override
+        public int getDimension() {
+            return DifferentialFeatureMap.NUMBER_OF_FEATURES;
+        }
+
+        @Override
+        public FeatureMap getFeatureMap(Mat image, int size) {
+            return new DifferentialFeatureMap(image, size);
         }
     },
     HU_MOMENTS {
         @Override
         public List<Double> getVector(Mat image) {
-            final Mat green = ImageUtils.extractGreen(image);
-            final Moments moments = Imgproc.moments(green);
-            final Mat huMoments = new Mat();
-            Imgproc.HuMoments(moments, huMoments);
+            final double[] invariants = new double[HuMoments.NUMBER_OF_INVARIANTS];
+            getVector(image, invariants);
             final List<Double> vector = new ArrayList<>();
-            for (int i = 0; i < 7; i++) {
-                vector.add(huMoments.get(i, 0)[0]);
+            for (double invariant : invariants) {
+                vector.add(invariant);
             }
             return vector;
         }
+
+        @Override
+        public void getVector(Mat image, double[] vector) {
+            HuMoments.fromGreen(image, vector);
+        }
+
+        @Override
+        public int getDimension() {
+            return HuMoments.NUMBER_OF_INVARIANTS;
+        }
+
+        @Override
+        public FeatureMap getFeatureMap(Mat image, int size) {
+            return new HuMomentsFeatureMap(image, size);
+        }
     }
 }
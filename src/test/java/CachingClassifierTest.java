@@ -0,0 +1,85 @@
+import org.junit.Test;
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CachingClassifierTest {
+
+    private static final double[] MEANS = {1, -2};
+    private static final double[] STANDARD_DEVIATIONS = {2, 0.5};
+    private static final double STEP = 0.25;
+
+    @Test
+    public void hitReturnsSameDecisionAsMiss() {
+        final RecordingClassifier wrapped = new RecordingClassifier();
+        final CachingClassifier cache = new CachingClassifier(wrapped, STEP, 1000);
+        try {
+            // Both fall into the cell spanning [0, 0.25) x [0.25, 0.5) of normalized attributes
+            final double[] first = {1 + 0.01 * 2, -2 + 0.26 * 0.5};
+            final double[] second = {1 + 0.24 * 2, -2 + 0.49 * 0.5};
+            final boolean decision = cache.isVessel(first);
+            assertEquals(decision, cache.isVessel(second));
+            assertEquals(1, wrapped.vectors.size());
+            assertEquals(1, cache.getStats().hitCount());
+            assertArrayEquals(new double[]{1 + 0.125 * 2, -2 + 0.375 * 0.5}, wrapped.vectors.get(0), 1e-12);
+        } finally {
+            cache.release();
+        }
+    }
+
+    @Test
+    public void decidesLikeWrappedClassifierAtCellCenters() {
+        final RecordingClassifier wrapped = new RecordingClassifier();
+        final CachingClassifier cache = new CachingClassifier(wrapped, STEP, 1000);
+        try {
+            final Random random = new Random(1);
+            for (int i = 0; i < 1000; i++) {
+                final double[] vector = {MEANS[0] + random.nextGaussian() * STANDARD_DEVIATIONS[0],
+                                         MEANS[1] + random.nextGaussian() * STANDARD_DEVIATIONS[1]};
+                final boolean decision = cache.isVessel(vector);
+                final double[] center = new double[vector.length];
+                for (int attr = 0; attr < vector.length; attr++) {
+                    final double normalized = (vector[attr] - MEANS[attr]) / STANDARD_DEVIATIONS[attr];
+                    final double cellCenter = (Math.floor(normalized / STEP) + 0.5) * STEP;
+                    center[attr] = cellCenter * STANDARD_DEVIATIONS[attr] + MEANS[attr];
+                }
+                assertEquals(RecordingClassifier.decide(center), decision);
+            }
+            assertEquals(wrapped.vectors.size(), cache.getStats().missCount());
+            assertEquals(1000 - wrapped.vectors.size(), cache.getStats().hitCount());
+        } finally {
+            cache.release();
+        }
+    }
+
+    /**
+     * Decides by the sum of attributes and remembers every vector it was asked about.
+     */
+    private static class RecordingClassifier extends AbstractClassifier {
+        private final List<double[]> vectors = new ArrayList<>();
+
+        private RecordingClassifier() {
+            super(new NormalizedTrainingSet(new double[0], new boolean[0], MEANS, STANDARD_DEVIATIONS));
+        }
+
+        private static boolean decide(double[] vector) {
+            return vector[0] + vector[1] > -1;
+        }
+
+        @Override
+        boolean isVessel(Mat image, int x, int y) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        boolean isVessel(double[] vector) {
+            vectors.add(vector.clone());
+            return decide(vector);
+        }
+    }
+}
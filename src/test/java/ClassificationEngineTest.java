@@ -0,0 +1,177 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+
+public class ClassificationEngineTest {
+
+    private static final int SIZE = 2;
+    private static final int TILE_SIZE = 16;
+    /**
+     * Widths and heights of images, giving edge tiles narrower, shorter or both than the others, one pixel included.
+     */
+    private static final int[][] IMAGE_SIZES = {{16, 16}, {33, 33}, {40, 21}, {17, 1}, {1, 17}, {1, 1}, {16, 2}};
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    @Test
+    public void classifiesEveryPixelOnceWithEdgeTiles() {
+        for (int[] imageSize : IMAGE_SIZES) {
+            final int width = imageSize[0];
+            final int height = imageSize[1];
+            final PositionClassifier classifier = new PositionClassifier(width, height);
+            final ClassificationEngine engine = new ClassificationEngine(classifier, VariantModel.HU_MOMENTS, SIZE,
+                                                                         true, TILE_SIZE, 2);
+            try {
+                final Mat result = engine.classify(image(width, height), null);
+                final byte[] decisions = firstChannel(result);
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        final String pixel = width + "x" + height + " pixel " + x + "," + y;
+                        assertEquals(pixel, 1, classifier.visits.get(y * width + x));
+                        assertEquals(pixel, PositionClassifier.isVessel(x, y) ? (byte) 255 : 0,
+                                     decisions[y * width + x]);
+                    }
+                }
+            } finally {
+                engine.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void skipsPixelsOutsideFieldOfView() {
+        final int width = 40;
+        final int height = 21;
+        final Mat fieldOfView = new Mat(height, width, CvType.CV_8UC3, new Scalar(0, 0, 0));
+        final Rect inside = new Rect(5, 3, 30, 17);
+        fieldOfView.submat(inside).setTo(new Scalar(255, 255, 255));
+        final PositionClassifier classifier = new PositionClassifier(width, height);
+        final ClassificationEngine engine = new ClassificationEngine(classifier, VariantModel.HU_MOMENTS, SIZE, true,
+                                                                     TILE_SIZE, 2);
+        try {
+            final byte[] decisions = firstChannel(engine.classify(image(width, height), fieldOfView));
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    final boolean isInside = inside.contains(new Point(x, y));
+                    assertEquals(isInside ? 1 : 0, classifier.visits.get(y * width + x));
+                    assertEquals(isInside && PositionClassifier.isVessel(x, y) ? (byte) 255 : 0,
+                                 decisions[y * width + x]);
+                }
+            }
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void fillsCoarseGridsOfEdgeTiles() {
+        for (int[] imageSize : IMAGE_SIZES) {
+            for (boolean isVessel : new boolean[]{true, false}) {
+                final int width = imageSize[0];
+                final int height = imageSize[1];
+                final ClassificationEngine engine = new ClassificationEngine(new ConstantClassifier(isVessel),
+                                                                             VariantModel.HU_MOMENTS, SIZE, true,
+                                                                             TILE_SIZE, 4, 2);
+                try {
+                    final byte[] decisions = firstChannel(engine.classify(image(width, height), null));
+                    for (int pixel = 0; pixel < decisions.length; pixel++) {
+                        assertEquals(width + "x" + height + " pixel " + pixel, isVessel ? (byte) 255 : 0,
+                                     decisions[pixel]);
+                    }
+                } finally {
+                    engine.shutdown();
+                }
+            }
+        }
+    }
+
+    private static Mat image(int width, int height) {
+        return new Mat(height, width, CvType.CV_8UC3, new Scalar(40, 120, 200));
+    }
+
+    private static byte[] firstChannel(Mat result) {
+        final byte[] pixels = new byte[(int) result.total() * result.channels()];
+        result.get(0, 0, pixels);
+        final byte[] channel = new byte[(int) result.total()];
+        for (int pixel = 0; pixel < channel.length; pixel++) {
+            channel[pixel] = pixels[pixel * result.channels()];
+        }
+        return channel;
+    }
+
+    private static NormalizedTrainingSet emptyTrainingSet() {
+        final int dimension = HuMoments.NUMBER_OF_INVARIANTS;
+        return new NormalizedTrainingSet(new double[0], new boolean[0], new double[dimension], new double[dimension]);
+    }
+
+    /**
+     * Decides by position of the pixel in the image, counting how many times each pixel was asked about.
+     */
+    private static class PositionClassifier extends AbstractClassifier {
+        private final int width;
+        private final AtomicIntegerArray visits;
+
+        private PositionClassifier(int width, int height) {
+            super(emptyTrainingSet());
+            this.width = width;
+            this.visits = new AtomicIntegerArray(width * height);
+        }
+
+        private static boolean isVessel(int x, int y) {
+            return (x + 2 * y) % 3 == 0;
+        }
+
+        @Override
+        public void classifyRegion(FeatureMap features, Rect roi, byte[] mask) {
+            for (int y = 0; y < roi.height; y++) {
+                for (int x = 0; x < roi.width; x++) {
+                    final int pixel = y * roi.width + x;
+                    if (mask[pixel] != 0) {
+                        visits.incrementAndGet((roi.y + y) * width + roi.x + x);
+                        mask[pixel] = isVessel(roi.x + x, roi.y + y) ? (byte) 255 : 0;
+                    }
+                }
+            }
+        }
+
+        @Override
+        boolean isVessel(Mat image, int x, int y) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        boolean isVessel(double[] vector) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class ConstantClassifier extends AbstractClassifier {
+        private final boolean isVessel;
+
+        private ConstantClassifier(boolean isVessel) {
+            super(emptyTrainingSet());
+            this.isVessel = isVessel;
+        }
+
+        @Override
+        boolean isVessel(Mat image, int x, int y) {
+            return isVessel;
+        }
+
+        @Override
+        boolean isVessel(double[] vector) {
+            return isVessel;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ClassifyRegionTest {
+
+    private static final int SIZE = 3;
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+
+    @Test
+    public void decidesLikeSinglePixelsWithTree() {
+        final Random random = new Random(1);
+        final FeatureMap features = randomFeatureMap(random);
+        final NormalizedTrainingSet trainingSet = trainingSet(features, random);
+        assertSameDecisions(new KNNClassifier(trainingSet, VariantModel.HU_MOMENTS, SIZE, (short) 11), features,
+                            random);
+    }
+
+    @Test
+    public void decidesLikeSinglePixelsWithBruteForce() {
+        final Random random = new Random(2);
+        final FeatureMap features = randomFeatureMap(random);
+        final NormalizedTrainingSet trainingSet = trainingSet(features, random);
+        final KNNClassifier classifier = new KNNClassifier(trainingSet, VariantModel.HU_MOMENTS, SIZE, (short) 5,
+                                                           new BruteForceIndex(trainingSet));
+        assertSameDecisions(classifier, features, random);
+    }
+
+    /**
+     * Classifies regions touching image borders with some pixels left out of the mask, and compares decisions with
+     * the ones about each pixel alone.
+     */
+    private static void assertSameDecisions(AbstractClassifier classifier, FeatureMap features, Random random) {
+        final Rect[] regions = {new Rect(0, 0, WIDTH, HEIGHT), new Rect(0, 0, 7, 5), new Rect(33, 25, 7, 5),
+                                new Rect(10, 4, 1, 20), new Rect(5, 29, 30, 1)};
+        final double[] vector = new double[HuMoments.NUMBER_OF_INVARIANTS];
+        for (Rect roi : regions) {
+            final byte[] mask = new byte[roi.width * roi.height];
+            for (int pixel = 0; pixel < mask.length; pixel++) {
+                mask[pixel] = random.nextInt(5) == 0 ? 0 : (byte) 1;
+            }
+            final byte[] decisions = mask.clone();
+            classifier.classifyRegion(features.region(roi), roi, decisions);
+            for (int y = 0; y < roi.height; y++) {
+                for (int x = 0; x < roi.width; x++) {
+                    final int pixel = y * roi.width + x;
+                    byte expected = 0;
+                    if (mask[pixel] != 0) {
+                        features.getVector(roi.x + x, roi.y + y, vector);
+                        expected = classifier.isVessel(vector) ? (byte) 255 : 0;
+                    }
+                    assertEquals("Pixel " + (roi.x + x) + "," + (roi.y + y), expected, decisions[pixel]);
+                }
+            }
+        }
+    }
+
+    private static FeatureMap randomFeatureMap(Random random) {
+        final byte[] green = new byte[WIDTH * HEIGHT];
+        random.nextBytes(green);
+        return new HuMomentsFeatureMap(green, WIDTH, HEIGHT, SIZE);
+    }
+
+    /**
+     * Takes vectors of random pixels as training cases, labelled by their first attribute with some noise, so that
+     * neighbours disagree near the boundary.
+     */
+    private static NormalizedTrainingSet trainingSet(FeatureMap features, Random random) {
+        final List<List<Double>> cases = new ArrayList<>();
+        final double[] firstAttributes = new double[200];
+        final double[] vector = new double[HuMoments.NUMBER_OF_INVARIANTS];
+        for (int i = 0; i < firstAttributes.length; i++) {
+            features.getVector(random.nextInt(WIDTH), random.nextInt(HEIGHT), vector);
+            firstAttributes[i] = vector[0];
+            final List<Double> attributes = new ArrayList<>();
+            for (double attribute : vector) {
+                attributes.add(attribute);
+            }
+            cases.add(attributes);
+        }
+        final double[] sorted = firstAttributes.clone();
+        Arrays.sort(sorted);
+        final double median = sorted[sorted.length / 2];
+        final List<TrainingVector> vectors = new ArrayList<>();
+        for (int i = 0; i < cases.size(); i++) {
+            final boolean isVessel = (firstAttributes[i] > median) != (random.nextInt(10) == 0);
+            vectors.add(new TrainingVector(cases.get(i), isVessel));
+        }
+        return new NormalizedTrainingSet(vectors);
+    }
+}
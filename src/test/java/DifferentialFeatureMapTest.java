@@ -0,0 +1,58 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class DifferentialFeatureMapTest {
+
+    private static final int SIZE = DifferentialFeatureMap.SUPPORT;
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    @Test
+    public void featureMapMatchesVectorsOfSurroundings() {
+        final Mat image = smoothRandomImage(new Random(1), 31, 22);
+        final FeatureMap features = VariantModel.DIFFERENTIAL.getFeatureMap(image, SIZE);
+        final double[] expected = new double[DifferentialFeatureMap.NUMBER_OF_FEATURES];
+        final double[] actual = new double[DifferentialFeatureMap.NUMBER_OF_FEATURES];
+        for (int y = 0; y < image.rows(); y++) {
+            for (int x = 0; x < image.cols(); x++) {
+                final Mat surrounding = ImageUtils.getSurroundingPixels(image, x, y, SIZE);
+                VariantModel.DIFFERENTIAL.getVector(surrounding, expected);
+                surrounding.release();
+                features.getVector(x, y, actual);
+                for (int feature = 0; feature < expected.length; feature++) {
+                    assertEquals("Pixel " + x + "," + y + " feature " + feature, expected[feature], actual[feature],
+                                 1e-4 * Math.abs(expected[feature]) + 1e-4);
+                }
+            }
+        }
+        image.release();
+    }
+
+    /**
+     * Draws a random walk along rows, so that gradients and curvatures vary smoothly as in fundus images.
+     */
+    private static Mat smoothRandomImage(Random random, int width, int height) {
+        final byte[] pixels = new byte[width * height * 3];
+        for (int y = 0; y < height; y++) {
+            int value = 128;
+            for (int x = 0; x < width; x++) {
+                value = Math.max(0, Math.min(255, value + random.nextInt(21) - 10));
+                for (int channel = 0; channel < 3; channel++) {
+                    pixels[(y * width + x) * 3 + channel] = (byte) value;
+                }
+            }
+        }
+        final Mat image = new Mat(height, width, CvType.CV_8UC3);
+        image.put(0, 0, pixels);
+        return image;
+    }
+}
@@ -0,0 +1,78 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DistanceKernelTest {
+
+    private static final int NUMBER_OF_ROWS = 200;
+
+    @Test
+    public void equalsFullDistanceBelowLimit() {
+        final Random random = new Random(1);
+        for (int dimension = 1; dimension <= 9; dimension++) {
+            final double[] query = randomVector(random, dimension);
+            final double[] matrix = randomVector(random, NUMBER_OF_ROWS * dimension);
+            for (int row = 0; row < NUMBER_OF_ROWS; row++) {
+                final double full = fullDistance(query, matrix, row * dimension, dimension);
+                final double limit = full * 2 * random.nextDouble();
+                final double distance = DistanceKernel.squaredDistance(query, matrix, row * dimension, dimension,
+                                                                       limit);
+                if (full <= limit) {
+                    assertEquals(full, distance, 1e-9);
+                } else {
+                    assertTrue("Abandoned distance " + distance + " not above limit " + limit, distance > limit);
+                }
+                assertEquals(full, DistanceKernel.squaredDistance(query, matrix, row * dimension, dimension,
+                                                                  Double.POSITIVE_INFINITY), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void scanKeepsNearestRows() {
+        final Random random = new Random(2);
+        final int dimension = 7;
+        final int k = 5;
+        final double[] matrix = randomVector(random, NUMBER_OF_ROWS * dimension);
+        for (int i = 0; i < 50; i++) {
+            final double[] query = randomVector(random, dimension);
+            final NeighbourHeap neighbours = new NeighbourHeap(k);
+            DistanceKernel.scan(query, matrix, dimension, 0, NUMBER_OF_ROWS, null, neighbours);
+
+            assertEquals(k, neighbours.size());
+            double worst = 0;
+            for (int n = 0; n < k; n++) {
+                final double distance = fullDistance(query, matrix, neighbours.index(n) * dimension, dimension);
+                assertEquals(distance, neighbours.distance(n), 1e-9);
+                worst = Math.max(worst, distance);
+            }
+            int closer = 0;
+            for (int row = 0; row < NUMBER_OF_ROWS; row++) {
+                if (fullDistance(query, matrix, row * dimension, dimension) < worst) {
+                    closer++;
+                }
+            }
+            assertEquals(k - 1, closer);
+        }
+    }
+
+    private static double fullDistance(double[] query, double[] matrix, int offset, int dimension) {
+        double sum = 0;
+        for (int attr = 0; attr < dimension; attr++) {
+            final double difference = query[attr] - matrix[offset + attr];
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    private static double[] randomVector(Random random, int length) {
+        final double[] vector = new double[length];
+        for (int i = 0; i < length; i++) {
+            vector[i] = random.nextGaussian();
+        }
+        return vector;
+    }
+}
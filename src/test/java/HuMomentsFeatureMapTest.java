@@ -0,0 +1,77 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class HuMomentsFeatureMapTest {
+
+    private static final int SIZE = 4;
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    @Test
+    public void featureMapMatchesOpenCVOfSurroundings() {
+        final Mat image = randomImage(new Random(3), 23, 17);
+        final HuMomentsFeatureMap features = new HuMomentsFeatureMap(image, SIZE);
+        final double[] hu = new double[HuMoments.NUMBER_OF_INVARIANTS];
+        for (int y = 0; y < image.rows(); y++) {
+            for (int x = 0; x < image.cols(); x++) {
+                features.getVector(x, y, hu);
+                assertInvariants(surroundingInvariants(image, x, y), hu);
+            }
+        }
+    }
+
+    @Test
+    public void featureMapRegionMatchesOpenCVOfSurroundings() {
+        final Mat image = randomImage(new Random(4), 23, 17);
+        final Rect roi = new Rect(15, 2, 8, 15);
+        final FeatureMap region = new HuMomentsFeatureMap(image, SIZE).region(roi);
+        final double[] hu = new double[HuMoments.NUMBER_OF_INVARIANTS];
+        for (int y = roi.y; y < roi.y + roi.height; y++) {
+            for (int x = roi.x; x < roi.x + roi.width; x++) {
+                region.getVector(x, y, hu);
+                assertInvariants(surroundingInvariants(image, x, y), hu);
+            }
+        }
+    }
+
+    private static double[] surroundingInvariants(Mat image, int x, int y) {
+        final Mat destination = new Mat(2 * SIZE + 1, 2 * SIZE + 1, image.type());
+        return openCVInvariants(ImageUtils.getSurroundingPixels(image, x, y, SIZE, destination), 1);
+    }
+
+    private static double[] openCVInvariants(Mat image, int channel) {
+        final Mat plane = new Mat();
+        Core.extractChannel(image, plane, channel);
+        final Mat hu = new Mat();
+        Imgproc.HuMoments(Imgproc.moments(plane), hu);
+        final double[] invariants = new double[HuMoments.NUMBER_OF_INVARIANTS];
+        hu.get(0, 0, invariants);
+        return invariants;
+    }
+
+    private static void assertInvariants(double[] expected, double[] actual) {
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Invariant " + (i + 1), expected[i], actual[i], 1e-9 * Math.abs(expected[i]) + 1e-15);
+        }
+    }
+
+    private static Mat randomImage(Random random, int width, int height) {
+        final byte[] pixels = new byte[width * height * 3];
+        random.nextBytes(pixels);
+        final Mat image = new Mat(height, width, CvType.CV_8UC3);
+        image.put(0, 0, pixels);
+        return image;
+    }
+}
@@ -0,0 +1,64 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class HuMomentsTest {
+
+    private static final int SIZE = 4;
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    @Test
+    public void fromPixelsMatchesOpenCV() {
+        final Mat image = randomImage(new Random(1), 13, 9);
+        final byte[] pixels = new byte[(int) image.total() * image.channels()];
+        image.get(0, 0, pixels);
+        final double[] hu = new double[HuMoments.NUMBER_OF_INVARIANTS];
+        for (int channel = 0; channel < image.channels(); channel++) {
+            HuMoments.fromPixels(pixels, image.cols(), image.rows(), image.channels(), channel, hu);
+            assertInvariants(openCVInvariants(image, channel), hu);
+        }
+    }
+
+    @Test
+    public void fromGreenMatchesOpenCV() {
+        final Mat image = randomImage(new Random(2), 2 * SIZE + 1, 2 * SIZE + 1);
+        final double[] hu = new double[HuMoments.NUMBER_OF_INVARIANTS];
+        HuMoments.fromGreen(image, hu);
+        assertInvariants(openCVInvariants(image, 1), hu);
+    }
+
+    private static double[] openCVInvariants(Mat image, int channel) {
+        final Mat plane = new Mat();
+        Core.extractChannel(image, plane, channel);
+        final Mat hu = new Mat();
+        Imgproc.HuMoments(Imgproc.moments(plane), hu);
+        final double[] invariants = new double[HuMoments.NUMBER_OF_INVARIANTS];
+        hu.get(0, 0, invariants);
+        return invariants;
+    }
+
+    private static void assertInvariants(double[] expected, double[] actual) {
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Invariant " + (i + 1), expected[i], actual[i], 1e-9 * Math.abs(expected[i]) + 1e-15);
+        }
+    }
+
+    private static Mat randomImage(Random random, int width, int height) {
+        final byte[] pixels = new byte[width * height * 3];
+        random.nextBytes(pixels);
+        final Mat image = new Mat(height, width, CvType.CV_8UC3);
+        image.put(0, 0, pixels);
+        return image;
+    }
+}
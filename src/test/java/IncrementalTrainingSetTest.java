@@ -0,0 +1,103 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class IncrementalTrainingSetTest {
+
+    private static final int DIMENSION = 7;
+    private static final double TOLERANCE = 1e-9;
+
+    @Test
+    public void snapshotEqualsBatchTrainingSet() {
+        final Random random = new Random(1);
+        final IncrementalTrainingSet incremental = new IncrementalTrainingSet(DIMENSION);
+        final List<TrainingVector> vectors = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            final double[] vector = randomVector(random);
+            final boolean isVessel = random.nextBoolean();
+            incremental.add(vector, isVessel);
+            vectors.add(trainingVector(vector, isVessel));
+            if (i % 97 == 0) {
+                assertSameTrainingSet(new NormalizedTrainingSet(vectors), incremental.snapshot());
+            }
+        }
+        assertSameTrainingSet(new NormalizedTrainingSet(vectors), incremental.snapshot());
+    }
+
+    @Test
+    public void earlierSnapshotsAreNotAffectedByAddedCases() {
+        final Random random = new Random(2);
+        final IncrementalTrainingSet incremental = new IncrementalTrainingSet(DIMENSION);
+        final List<TrainingVector> vectors = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final double[] vector = randomVector(random);
+            incremental.add(vector, i % 2 == 0);
+            vectors.add(trainingVector(vector, i % 2 == 0));
+        }
+        final long version = incremental.getVersion();
+        final NormalizedTrainingSet snapshot = incremental.snapshot();
+        final double[] data = snapshot.getData().clone();
+        assertSame(snapshot, incremental.snapshot());
+
+        for (int i = 0; i < 100; i++) {
+            incremental.add(randomVector(random), true);
+        }
+        assertEquals(version + 100, incremental.getVersion());
+        assertEquals(200, incremental.snapshot().size());
+        assertEquals(100, snapshot.size());
+        assertArrayEquals(data, snapshot.getData(), 0);
+        assertSameTrainingSet(new NormalizedTrainingSet(vectors), snapshot);
+    }
+
+    @Test
+    public void restoresNormalizedTrainingSet() {
+        final Random random = new Random(3);
+        final List<TrainingVector> vectors = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            vectors.add(trainingVector(randomVector(random), random.nextBoolean()));
+        }
+        final NormalizedTrainingSet trainingSet = new NormalizedTrainingSet(vectors);
+        final IncrementalTrainingSet incremental = IncrementalTrainingSet.of(trainingSet);
+        assertSame(trainingSet, incremental.snapshot());
+
+        final double[] vector = randomVector(random);
+        incremental.add(vector, true);
+        vectors.add(trainingVector(vector, true));
+        assertSameTrainingSet(new NormalizedTrainingSet(vectors), incremental.snapshot());
+    }
+
+    private static void assertSameTrainingSet(NormalizedTrainingSet expected, NormalizedTrainingSet actual) {
+        assertEquals(expected.size(), actual.size());
+        assertArrayEquals(expected.getMeans(), actual.getMeans(), TOLERANCE);
+        assertArrayEquals(expected.getStandardDeviations(), actual.getStandardDeviations(), TOLERANCE);
+        assertArrayEquals(expected.getData(), actual.getData(), TOLERANCE);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.isVessel(i), actual.isVessel(i));
+        }
+    }
+
+    private static TrainingVector trainingVector(double[] vector, boolean isVessel) {
+        final List<Double> vectorData = new ArrayList<>(vector.length);
+        for (double value : vector) {
+            vectorData.add(value);
+        }
+        return new TrainingVector(vectorData, isVessel);
+    }
+
+    /**
+     * Draws attributes of different scales and offsets, as Hu moments are.
+     */
+    private static double[] randomVector(Random random) {
+        final double[] vector = new double[DIMENSION];
+        for (int attr = 0; attr < DIMENSION; attr++) {
+            vector[attr] = attr + random.nextGaussian() * (attr + 1);
+        }
+        return vector;
+    }
+}
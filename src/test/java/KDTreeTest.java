@@ -0,0 +1,111 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class KDTreeTest {
+
+    private static final int DIMENSION = 7;
+
+    @Test
+    public void findsSameNeighboursAsBruteForce() {
+        final Random random = new Random(1);
+        final NormalizedTrainingSet trainingSet = randomTrainingSet(random, 1000, false);
+        assertSameNeighbours(trainingSet, random, 1, false);
+        assertSameNeighbours(trainingSet, random, 11, false);
+    }
+
+    @Test
+    public void resolvesTiesLikeBruteForce() {
+        final Random random = new Random(2);
+        final NormalizedTrainingSet trainingSet = randomTrainingSet(random, 1000, true);
+        assertSameNeighbours(trainingSet, random, 1, true);
+        assertSameNeighbours(trainingSet, random, 11, true);
+    }
+
+    @Test
+    public void handlesTrainingSetSmallerThanLeaf() {
+        final Random random = new Random(3);
+        assertSameNeighbours(randomTrainingSet(random, 5, false), random, 11, false);
+    }
+
+    @Test
+    public void refinesCandidatesToSameNeighboursAsBruteForce() {
+        final Random random = new Random(4);
+        final NormalizedTrainingSet trainingSet = randomTrainingSet(random, 1000, false);
+        final KDTree tree = new KDTree(trainingSet);
+        final BruteForceIndex bruteForce = new BruteForceIndex(trainingSet);
+        final NeighbourHeap expected = new NeighbourHeap(11);
+        final NeighbourHeap actual = new NeighbourHeap(11);
+        for (int i = 0; i < 200; i++) {
+            final double[] query = randomVector(random, false);
+            bruteForce.nearestNeighbours(query, expected);
+            actual.clear();
+            for (int candidate = 0; candidate < 5; candidate++) {
+                final int index = random.nextInt(trainingSet.size());
+                if (!actual.contains(index)) {
+                    actual.offer(index, squaredDistance(query, trainingSet, index));
+                }
+            }
+            tree.refineNeighbours(query, actual);
+            assertArrayEquals(sortedIndices(expected), sortedIndices(actual));
+        }
+    }
+
+    private static void assertSameNeighbours(NormalizedTrainingSet trainingSet, Random random, int k, boolean coarse) {
+        final KDTree tree = new KDTree(trainingSet);
+        final BruteForceIndex bruteForce = new BruteForceIndex(trainingSet);
+        final NeighbourHeap expected = new NeighbourHeap(k);
+        final NeighbourHeap actual = new NeighbourHeap(k);
+        for (int i = 0; i < 200; i++) {
+            final double[] query = randomVector(random, coarse);
+            bruteForce.nearestNeighbours(query, expected);
+            tree.nearestNeighbours(query, actual);
+            assertArrayEquals(sortedIndices(expected), sortedIndices(actual));
+        }
+    }
+
+    private static NormalizedTrainingSet randomTrainingSet(Random random, int size, boolean coarse) {
+        final double[] data = new double[size * DIMENSION];
+        final boolean[] labels = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(randomVector(random, coarse), 0, data, i * DIMENSION, DIMENSION);
+            labels[i] = random.nextBoolean();
+        }
+        final double[] means = new double[DIMENSION];
+        final double[] standardDeviations = new double[DIMENSION];
+        Arrays.fill(standardDeviations, 1);
+        return new NormalizedTrainingSet(data, labels, means, standardDeviations);
+    }
+
+    /**
+     * Coarse vectors take only a few values per attribute, so that many training cases are equally distant.
+     */
+    private static double[] randomVector(Random random, boolean coarse) {
+        final double[] vector = new double[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = coarse ? random.nextInt(3) : random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static double squaredDistance(double[] query, NormalizedTrainingSet trainingSet, int index) {
+        double distance = 0;
+        for (int i = 0; i < DIMENSION; i++) {
+            final double difference = query[i] - trainingSet.getData()[index * DIMENSION + i];
+            distance += difference * difference;
+        }
+        return distance;
+    }
+
+    private static int[] sortedIndices(NeighbourHeap neighbours) {
+        final int[] indices = new int[neighbours.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = neighbours.index(i);
+        }
+        Arrays.sort(indices);
+        return indices;
+    }
+}
@@ -0,0 +1,95 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class MatPoolTest {
+
+    private static final int ROWS = 7;
+    private static final int COLS = 13;
+    private static final int TYPE = CvType.CV_8UC3;
+    private static final long BYTES = ROWS * COLS * 3;
+
+    private long liveBytes;
+    private long pooledBytes;
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    @Before
+    public void emptyPool() {
+        MatPool.trim();
+        liveBytes = MatPool.getLiveBytes();
+        pooledBytes = MatPool.getPooledBytes();
+    }
+
+    @After
+    public void restoreBudget() {
+        MatPool.setBudget(256L << 20);
+        MatPool.trim();
+    }
+
+    @Test
+    public void reusesReleasedBuffer() {
+        final Mat first = MatPool.acquire(ROWS, COLS, TYPE);
+        assertEquals(liveBytes + BYTES, MatPool.getLiveBytes());
+        assertEquals(pooledBytes, MatPool.getPooledBytes());
+
+        MatPool.release(first);
+        assertEquals(liveBytes, MatPool.getLiveBytes());
+        assertEquals(pooledBytes + BYTES, MatPool.getPooledBytes());
+
+        final Mat second = MatPool.acquire(ROWS, COLS, TYPE);
+        assertSame(first, second);
+        assertEquals(liveBytes + BYTES, MatPool.getLiveBytes());
+        assertEquals(pooledBytes, MatPool.getPooledBytes());
+
+        final Mat otherShape = MatPool.acquire(COLS, ROWS, TYPE);
+        assertNotSame(second, otherShape);
+        MatPool.release(second);
+        MatPool.release(otherShape);
+        assertEquals(liveBytes, MatPool.getLiveBytes());
+        assertEquals(pooledBytes + 2 * BYTES, MatPool.getPooledBytes());
+    }
+
+    @Test
+    public void trimFreesPooledBuffers() {
+        final Mat mat = MatPool.acquire(ROWS, COLS, TYPE);
+        MatPool.release(mat);
+        MatPool.trim();
+        assertEquals(liveBytes, MatPool.getLiveBytes());
+        assertEquals(pooledBytes, MatPool.getPooledBytes());
+        assertEquals(0, mat.total());
+        final Mat allocated = MatPool.acquire(ROWS, COLS, TYPE);
+        assertNotSame(mat, allocated);
+        MatPool.release(allocated);
+    }
+
+    @Test
+    public void freesReleasedBuffersOverBudget() {
+        MatPool.setBudget(0);
+        final Mat mat = MatPool.acquire(ROWS, COLS, TYPE);
+        assertEquals(liveBytes + BYTES, MatPool.getLiveBytes());
+        MatPool.release(mat);
+        assertEquals(liveBytes, MatPool.getLiveBytes());
+        assertEquals(pooledBytes, MatPool.getPooledBytes());
+        assertEquals(0, mat.total());
+    }
+
+    @Test
+    public void freesPoolsOfEndedThreads() throws InterruptedException {
+        final Thread thread = new Thread(() -> MatPool.release(MatPool.acquire(ROWS, COLS, TYPE)));
+        thread.start();
+        thread.join();
+        assertEquals(liveBytes, MatPool.getLiveBytes());
+        assertEquals(pooledBytes, MatPool.getPooledBytes());
+    }
+}
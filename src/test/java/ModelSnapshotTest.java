@@ -0,0 +1,87 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ModelSnapshotTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsWhatWasWritten() throws IOException {
+        final ModelSnapshot snapshot = randomSnapshot(new Random(1), 37, 7);
+        final Path path = folder.getRoot().toPath().resolve("model.bin");
+        snapshot.write(path);
+
+        final ModelSnapshot read = ModelSnapshot.read(path);
+        assertEquals(snapshot.getVariantModel(), read.getVariantModel());
+        assertEquals(snapshot.getSize(), read.getSize());
+        assertEquals(snapshot.getSamplesFingerprint(), read.getSamplesFingerprint());
+        final NormalizedTrainingSet expected = snapshot.getTrainingSet();
+        final NormalizedTrainingSet actual = read.getTrainingSet();
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.getDimension(), actual.getDimension());
+        assertArrayEquals(expected.getMeans(), actual.getMeans(), 0);
+        assertArrayEquals(expected.getStandardDeviations(), actual.getStandardDeviations(), 0);
+        assertArrayEquals(expected.getData(), actual.getData(), 0);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.isVessel(i), actual.isVessel(i));
+        }
+        assertTrue(read.matches(VariantModel.HU_MOMENTS, 10, 42));
+        assertFalse(read.matches(VariantModel.HU_MOMENTS, 10, 43));
+    }
+
+    @Test
+    public void replacesExistingSnapshot() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("model.bin");
+        randomSnapshot(new Random(2), 50, 7).write(path);
+        randomSnapshot(new Random(3), 3, 7).write(path);
+        assertEquals(3, ModelSnapshot.read(path).getTrainingSet().size());
+    }
+
+    @Test
+    public void rejectsTruncatedSnapshot() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("model.bin");
+        randomSnapshot(new Random(4), 37, 7).write(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() / 2);
+        }
+        try {
+            ModelSnapshot.read(path);
+            fail("Truncated snapshot was read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("truncated"));
+        }
+    }
+
+    private static ModelSnapshot randomSnapshot(Random random, int size, int dimension) {
+        final double[] data = new double[size * dimension];
+        final boolean[] labels = new boolean[size];
+        final double[] means = new double[dimension];
+        final double[] standardDeviations = new double[dimension];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = random.nextGaussian();
+        }
+        for (int i = 0; i < size; i++) {
+            labels[i] = random.nextBoolean();
+        }
+        for (int i = 0; i < dimension; i++) {
+            means[i] = random.nextDouble();
+            standardDeviations[i] = random.nextDouble() + 1;
+        }
+        return new ModelSnapshot(VariantModel.HU_MOMENTS, 10, 42,
+                                 new NormalizedTrainingSet(data, labels, means, standardDeviations));
+    }
+}
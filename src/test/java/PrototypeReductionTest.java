@@ -0,0 +1,124 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PrototypeReductionTest {
+
+    private static final int DIMENSION = 4;
+
+    @Test
+    public void condensedSetClassifiesRemovedCases() {
+        final NormalizedTrainingSet trainingSet = overlappingClasses(new Random(1), 1500);
+        for (int numberOfNeighbours : new int[]{1, 3}) {
+            final NormalizedTrainingSet condensed = PrototypeReduction.condense(trainingSet, numberOfNeighbours);
+            assertTrue(condensed.size() < trainingSet.size());
+            assertRemovedCasesClassifiedCorrectly(trainingSet, condensed, numberOfNeighbours);
+        }
+    }
+
+    @Test
+    public void reducedSetClassifiesCasesRemovedByCondensing() {
+        final NormalizedTrainingSet trainingSet = overlappingClasses(new Random(2), 1500);
+        final NormalizedTrainingSet edited = PrototypeReduction.edit(trainingSet, 5);
+        final NormalizedTrainingSet reduced = PrototypeReduction.reduce(trainingSet, 5, 1);
+        assertTrue(edited.size() < trainingSet.size());
+        assertTrue(reduced.size() < edited.size());
+        assertArrayEquals(trainingSet.getMeans(), reduced.getMeans(), 0);
+        assertArrayEquals(trainingSet.getStandardDeviations(), reduced.getStandardDeviations(), 0);
+        // Cases removed by editing are noise, those removed by condensing must keep their label
+        assertRemovedCasesClassifiedCorrectly(edited, reduced, 1);
+    }
+
+    @Test
+    public void editingKeepsCasesAgreeingWithTheirNeighbours() {
+        final NormalizedTrainingSet trainingSet = overlappingClasses(new Random(3), 800);
+        final int numberOfNeighbours = 5;
+        final NormalizedTrainingSet edited = PrototypeReduction.edit(trainingSet, numberOfNeighbours);
+        final BruteForceIndex index = new BruteForceIndex(trainingSet);
+        final NeighbourHeap neighbours = new NeighbourHeap(numberOfNeighbours + 1);
+        int kept = 0;
+        for (int i = 0; i < trainingSet.size(); i++) {
+            index.nearestNeighbours(vector(trainingSet, i), neighbours);
+            int agreeing = 0;
+            for (int n = 0; n < neighbours.size(); n++) {
+                final int neighbour = neighbours.index(n);
+                if (neighbour != i && trainingSet.isVessel(neighbour) == trainingSet.isVessel(i)) {
+                    agreeing++;
+                }
+            }
+            if (agreeing > numberOfNeighbours / 2) {
+                assertArrayEquals(vector(trainingSet, i), vector(edited, kept), 0);
+                assertEquals(trainingSet.isVessel(i), edited.isVessel(kept));
+                kept++;
+            }
+        }
+        assertEquals(kept, edited.size());
+    }
+
+    @Test
+    public void keepsSmallTrainingSet() {
+        final NormalizedTrainingSet trainingSet = overlappingClasses(new Random(4), 3);
+        assertSame(trainingSet, PrototypeReduction.edit(trainingSet, 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEvenNumberOfNeighbours() {
+        PrototypeReduction.condense(overlappingClasses(new Random(5), 10), 2);
+    }
+
+    /**
+     * Checks that every case of the original set which is not a prototype is classified with its own label by the vote
+     * of its nearest prototypes.
+     */
+    private static void assertRemovedCasesClassifiedCorrectly(NormalizedTrainingSet original,
+                                                              NormalizedTrainingSet prototypes,
+                                                              int numberOfNeighbours) {
+        final BruteForceIndex index = new BruteForceIndex(prototypes);
+        final NeighbourHeap neighbours = new NeighbourHeap(numberOfNeighbours);
+        int prototype = 0;
+        for (int i = 0; i < original.size(); i++) {
+            final double[] vector = vector(original, i);
+            if (prototype < prototypes.size() && Arrays.equals(vector, vector(prototypes, prototype))) {
+                prototype++;
+                continue;
+            }
+            index.nearestNeighbours(vector, neighbours);
+            int positiveCount = 0;
+            for (int n = 0; n < neighbours.size(); n++) {
+                if (prototypes.isVessel(neighbours.index(n))) {
+                    positiveCount++;
+                }
+            }
+            assertEquals("Case " + i, original.isVessel(i), positiveCount > numberOfNeighbours / 2);
+        }
+        assertEquals(prototypes.size(), prototype);
+    }
+
+    private static double[] vector(NormalizedTrainingSet trainingSet, int index) {
+        final int dimension = trainingSet.getDimension();
+        return Arrays.copyOfRange(trainingSet.getData(), index * dimension, (index + 1) * dimension);
+    }
+
+    /**
+     * Draws two classes from normal distributions whose means are one standard deviation apart.
+     */
+    private static NormalizedTrainingSet overlappingClasses(Random random, int size) {
+        final double[] data = new double[size * DIMENSION];
+        final boolean[] labels = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            labels[i] = random.nextInt(4) == 0;
+            for (int attr = 0; attr < DIMENSION; attr++) {
+                data[i * DIMENSION + attr] = random.nextGaussian() + (labels[i] ? 0.5 : -0.5);
+            }
+        }
+        final double[] standardDeviations = new double[DIMENSION];
+        Arrays.fill(standardDeviations, 1);
+        return new NormalizedTrainingSet(data, labels, new double[DIMENSION], standardDeviations);
+    }
+}
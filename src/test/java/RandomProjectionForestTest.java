@@ -0,0 +1,98 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RandomProjectionForestTest {
+
+    private static final int DIMENSION = 7;
+    private static final int NUMBER_OF_NEIGHBOURS = 11;
+    private static final int NUMBER_OF_QUERIES = 300;
+
+    @Test
+    public void findsMoreTrueNeighboursWithMoreTrees() {
+        final NormalizedTrainingSet trainingSet = randomTrainingSet(new Random(1), 4000);
+        final double oneTree = recall(trainingSet, new RandomProjectionForest(trainingSet, 1, 32, 42));
+        final double manyTrees = recall(trainingSet, new RandomProjectionForest(trainingSet, 16, 32, 42));
+        assertTrue("Recall of 16 trees " + manyTrees + " below recall of one tree " + oneTree, manyTrees > oneTree);
+        assertTrue("Recall of 16 trees " + manyTrees, manyTrees > 0.9);
+    }
+
+    @Test
+    public void isExactWithSingleLeaf() {
+        final NormalizedTrainingSet trainingSet = randomTrainingSet(new Random(2), 500);
+        assertEquals(1, recall(trainingSet, new RandomProjectionForest(trainingSet, 1, 500, 42)), 0);
+    }
+
+    @Test
+    public void refinementKeepsCloserCandidates() {
+        final Random random = new Random(3);
+        final NormalizedTrainingSet trainingSet = randomTrainingSet(random, 4000);
+        final BruteForceIndex bruteForce = new BruteForceIndex(trainingSet);
+        final RandomProjectionForest forest = new RandomProjectionForest(trainingSet, 1, 32, 42);
+        final NeighbourHeap exact = new NeighbourHeap(NUMBER_OF_NEIGHBOURS);
+        final NeighbourHeap refined = new NeighbourHeap(NUMBER_OF_NEIGHBOURS);
+        for (int i = 0; i < NUMBER_OF_QUERIES; i++) {
+            final double[] query = randomVector(random);
+            bruteForce.nearestNeighbours(query, exact);
+            // Start from the true neighbours, as if they were found for an adjacent pixel
+            refined.clear();
+            for (int n = 0; n < exact.size(); n++) {
+                refined.offer(exact.index(n), exact.distance(n));
+            }
+            forest.refineNeighbours(query, refined);
+            assertEquals(NUMBER_OF_NEIGHBOURS, trueNeighbours(exact, refined));
+        }
+    }
+
+    /**
+     * @return fraction of the true neighbours found by the index
+     */
+    private static double recall(NormalizedTrainingSet trainingSet, NeighbourIndex index) {
+        final Random random = new Random(4);
+        final BruteForceIndex bruteForce = new BruteForceIndex(trainingSet);
+        final NeighbourHeap exact = new NeighbourHeap(NUMBER_OF_NEIGHBOURS);
+        final NeighbourHeap approximate = new NeighbourHeap(NUMBER_OF_NEIGHBOURS);
+        int found = 0;
+        for (int i = 0; i < NUMBER_OF_QUERIES; i++) {
+            final double[] query = randomVector(random);
+            bruteForce.nearestNeighbours(query, exact);
+            index.nearestNeighbours(query, approximate);
+            found += trueNeighbours(exact, approximate);
+        }
+        return (double) found / (NUMBER_OF_QUERIES * NUMBER_OF_NEIGHBOURS);
+    }
+
+    private static int trueNeighbours(NeighbourHeap exact, NeighbourHeap approximate) {
+        int found = 0;
+        for (int n = 0; n < exact.size(); n++) {
+            if (approximate.contains(exact.index(n))) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static NormalizedTrainingSet randomTrainingSet(Random random, int size) {
+        final double[] data = new double[size * DIMENSION];
+        final boolean[] labels = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(randomVector(random), 0, data, i * DIMENSION, DIMENSION);
+            labels[i] = random.nextBoolean();
+        }
+        final double[] standardDeviations = new double[DIMENSION];
+        Arrays.fill(standardDeviations, 1);
+        return new NormalizedTrainingSet(data, labels, new double[DIMENSION], standardDeviations);
+    }
+
+    private static double[] randomVector(Random random) {
+        final double[] vector = new double[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = random.nextGaussian();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,114 @@
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SampleArchiveTest {
+
+    private static final int WIDTH = 5;
+    private static final int HEIGHT = 3;
+    private static final int CHANNELS = 3;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    @Test
+    public void readsWhatWasAppended() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("samples.bin");
+        final List<byte[]> samples = randomSamples(new Random(1), 10);
+        append(path, samples, 0);
+
+        final SampleArchive archive = SampleArchive.open(path);
+        assertSamples(samples, archive);
+    }
+
+    @Test
+    public void appendsToExistingArchive() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("samples.bin");
+        final List<byte[]> samples = randomSamples(new Random(2), 10);
+        append(path, samples.subList(0, 4), 0);
+        append(path, samples.subList(4, 10), 4);
+
+        assertSamples(samples, SampleArchive.open(path));
+    }
+
+    @Test
+    public void ignoresIncompleteRecord() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("samples.bin");
+        final List<byte[]> samples = randomSamples(new Random(3), 6);
+        append(path, samples.subList(0, 5), 0);
+        // Part of the sixth record, as left by an interrupted write
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[7]));
+        }
+        assertSamples(samples.subList(0, 5), SampleArchive.open(path));
+
+        append(path, samples.subList(5, 6), 5);
+        assertSamples(samples, SampleArchive.open(path));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsSamplesOfDifferentSize() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("samples.bin");
+        append(path, randomSamples(new Random(4), 1), 0);
+        new SampleArchive.Writer(path, WIDTH + 1, HEIGHT, CHANNELS).close();
+    }
+
+    /**
+     * Appends samples, labelled as vessels when their index in the whole list is even.
+     */
+    private static void append(Path path, List<byte[]> samples, int firstIndex) throws IOException {
+        try (SampleArchive.Writer writer = new SampleArchive.Writer(path, WIDTH, HEIGHT, CHANNELS)) {
+            for (int i = 0; i < samples.size(); i++) {
+                final Mat sample = new Mat(HEIGHT, WIDTH, CvType.CV_8UC3);
+                sample.put(0, 0, samples.get(i));
+                writer.append(sample, (firstIndex + i) % 2 == 0);
+                sample.release();
+            }
+        }
+    }
+
+    private static void assertSamples(List<byte[]> expected, SampleArchive archive) {
+        assertEquals(expected.size(), archive.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(i % 2 == 0, archive.isVessel(i));
+            final Mat sample = archive.getSample(i);
+            assertEquals(WIDTH, sample.width());
+            assertEquals(HEIGHT, sample.height());
+            assertEquals(CHANNELS, sample.channels());
+            final byte[] pixels = new byte[WIDTH * HEIGHT * CHANNELS];
+            sample.get(0, 0, pixels);
+            assertArrayEquals(expected.get(i), pixels);
+            sample.release();
+        }
+    }
+
+    private static List<byte[]> randomSamples(Random random, int count) {
+        final List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final byte[] pixels = new byte[WIDTH * HEIGHT * CHANNELS];
+            random.nextBytes(pixels);
+            samples.add(pixels);
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,175 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SampleImageTest {
+
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+    private static final int SIZE = 1;
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    @Test
+    public void sameSeedGivesSameSamples() {
+        final Mat image = positionImage();
+        final Mat mask = mask();
+        final Mat manual = manual();
+        final List<List<Point>> first = positions(
+                ImageUtils.sampleImage(image, mask, manual, 20, 50, SIZE, new Random(7)));
+        final List<List<Point>> second = positions(
+                ImageUtils.sampleImage(image, mask, manual, 20, 50, SIZE, new Random(7)));
+        assertEquals(first, second);
+        final List<List<Point>> other = positions(
+                ImageUtils.sampleImage(image, mask, manual, 20, 50, SIZE, new Random(8)));
+        assertNotEquals(first, other);
+    }
+
+    @Test
+    public void takesRequestedNumberOfDistinctSamplesOfEachClass() {
+        final Mat image = positionImage();
+        final Mat mask = mask();
+        final Mat manual = manual();
+        for (int[] counts : new int[][]{{0, 0}, {1, 1}, {20, 50}, {positivesInside(), 100}}) {
+            final List<List<Mat>> samples = ImageUtils.sampleImage(image, mask, manual, counts[0], counts[1], SIZE,
+                                                                   new Random(counts[0]));
+            final List<List<Point>> positions = positions(samples);
+            assertEquals(counts[0], positions.get(0).size());
+            assertEquals(counts[1], positions.get(1).size());
+            for (int i = 0; i < positions.size(); i++) {
+                final boolean isVessel = i == 0;
+                assertEquals(positions.get(i).size(), new HashSet<>(positions.get(i)).size());
+                for (Point position : positions.get(i)) {
+                    assertTrue(isInside(position));
+                    assertEquals(isVessel, isPositive(position));
+                }
+                for (Mat sample : samples.get(i)) {
+                    assertEquals(2 * SIZE + 1, sample.width());
+                    assertEquals(2 * SIZE + 1, sample.height());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void samplesEveryPixelWithSimilarFrequency() {
+        final Mat image = positionImage();
+        final Mat mask = mask();
+        final Mat manual = manual();
+        final int positives = positivesInside();
+        final int[] counts = new int[WIDTH * HEIGHT];
+        final Random random = new Random(3);
+        final int rounds = 400;
+        for (int round = 0; round < rounds; round++) {
+            for (Point position : positions(ImageUtils.sampleImage(image, mask, manual, 10, 0, SIZE, random)).get(0)) {
+                counts[(int) position.y * WIDTH + (int) position.x]++;
+            }
+        }
+        // Every positive pixel is taken with probability 10 / positives in each round
+        final double expected = 10.0 * rounds / positives;
+        final Set<Integer> sampled = new HashSet<>();
+        for (int pixel = 0; pixel < counts.length; pixel++) {
+            if (counts[pixel] > 0) {
+                sampled.add(pixel);
+                assertTrue("Pixel " + pixel + " sampled " + counts[pixel] + " times, expected about " + expected,
+                           Math.abs(counts[pixel] - expected) < 5 * Math.sqrt(expected));
+            }
+        }
+        assertEquals(positives, sampled.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMoreSamplesThanPixels() {
+        ImageUtils.sampleImage(positionImage(), mask(), manual(), positivesInside() + 1, 0, SIZE, new Random(1));
+    }
+
+    /**
+     * @return image whose blue and green channels are the column and row of each pixel
+     */
+    private static Mat positionImage() {
+        final byte[] pixels = new byte[WIDTH * HEIGHT * 3];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                pixels[(y * WIDTH + x) * 3] = (byte) x;
+                pixels[(y * WIDTH + x) * 3 + 1] = (byte) y;
+                pixels[(y * WIDTH + x) * 3 + 2] = (byte) 255;
+            }
+        }
+        final Mat image = new Mat(HEIGHT, WIDTH, CvType.CV_8UC3);
+        image.put(0, 0, pixels);
+        return image;
+    }
+
+    private static Mat mask() {
+        final Mat mask = new Mat(HEIGHT, WIDTH, CvType.CV_8UC3, new Scalar(0, 0, 0));
+        Imgproc.rectangle(mask, new Point(3, 2), new Point(WIDTH - 4, HEIGHT - 3), new Scalar(255, 255, 255), -1);
+        return mask;
+    }
+
+    private static Mat manual() {
+        final byte[] pixels = new byte[WIDTH * HEIGHT * 3];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                for (int channel = 0; channel < 3; channel++) {
+                    pixels[(y * WIDTH + x) * 3 + channel] = isPositive(new Point(x, y)) ? (byte) 255 : 0;
+                }
+            }
+        }
+        final Mat manual = new Mat(HEIGHT, WIDTH, CvType.CV_8UC3);
+        manual.put(0, 0, pixels);
+        return manual;
+    }
+
+    private static boolean isInside(Point position) {
+        return position.x >= 3 && position.x <= WIDTH - 4 && position.y >= 2 && position.y <= HEIGHT - 3;
+    }
+
+    private static boolean isPositive(Point position) {
+        return ((int) position.x + (int) position.y) % 5 == 0;
+    }
+
+    private static int positivesInside() {
+        int positives = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (isInside(new Point(x, y)) && isPositive(new Point(x, y))) {
+                    positives++;
+                }
+            }
+        }
+        return positives;
+    }
+
+    /**
+     * @return positions of the sampled pixels, read from the center of their surroundings
+     */
+    private static List<List<Point>> positions(List<List<Mat>> samples) {
+        final List<List<Point>> positions = new ArrayList<>();
+        for (List<Mat> classSamples : samples) {
+            final List<Point> classPositions = new ArrayList<>();
+            for (Mat sample : classSamples) {
+                final double[] center = sample.get(SIZE, SIZE);
+                classPositions.add(new Point(center[0], center[1]));
+            }
+            positions.add(classPositions);
+        }
+        return positions;
+    }
+}
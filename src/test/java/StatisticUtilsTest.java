@@ -0,0 +1,77 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class StatisticUtilsTest {
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    @Test
+    public void countsLikePixelByPixelComparison() {
+        final Random random = new Random(1);
+        for (int[] size : new int[][]{{1, 1}, {37, 23}, {200, 150}}) {
+            final Mat reference = randomMask(random, size[0], size[1]);
+            final Mat result = randomMask(random, size[0], size[1]);
+
+            final ConfusionMatrix matrix = StatisticUtils.computeConfusionMatrix(reference, result);
+            int truePositives = 0;
+            int trueNegatives = 0;
+            int falsePositives = 0;
+            int falseNegatives = 0;
+            for (int y = 0; y < reference.height(); y++) {
+                for (int x = 0; x < reference.width(); x++) {
+                    final boolean referenceIsVessel = ImageUtils.isWhite(reference.get(y, x));
+                    final boolean resultIsVessel = ImageUtils.isWhite(result.get(y, x));
+                    if (referenceIsVessel && resultIsVessel) {
+                        truePositives++;
+                    } else if (!referenceIsVessel && !resultIsVessel) {
+                        trueNegatives++;
+                    } else if (referenceIsVessel) {
+                        falseNegatives++;
+                    } else {
+                        falsePositives++;
+                    }
+                }
+            }
+            assertEquals(truePositives, matrix.getTruePositiveAmount());
+            assertEquals(trueNegatives, matrix.getTrueNegativeAmount());
+            assertEquals(falsePositives, matrix.getFalsePositiveAmount());
+            assertEquals(falseNegatives, matrix.getFalseNegativeAmount());
+            final double errors = falsePositives + falseNegatives;
+            final double total = size[0] * size[1];
+            assertEquals(errors / total, StatisticUtils.computeMeanSquaredError(reference, result), 1e-12);
+            assertEquals(1 - errors / total, matrix.getAccuracy(), 1e-12);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMasksOfDifferentSize() {
+        final Random random = new Random(2);
+        StatisticUtils.computeConfusionMatrix(randomMask(random, 10, 10), randomMask(random, 10, 11));
+    }
+
+    /**
+     * Draws white, black and partially white pixels, the last ones being background.
+     */
+    private static Mat randomMask(Random random, int width, int height) {
+        final byte[] pixels = new byte[width * height * 3];
+        for (int pixel = 0; pixel < width * height; pixel++) {
+            final int kind = random.nextInt(3);
+            for (int channel = 0; channel < 3; channel++) {
+                final boolean white = kind == 0 || kind == 2 && channel == 1;
+                pixels[pixel * 3 + channel] = white ? (byte) 255 : 0;
+            }
+        }
+        final Mat mask = new Mat(height, width, CvType.CV_8UC3);
+        mask.put(0, 0, pixels);
+        return mask;
+    }
+}
@@ -0,0 +1,150 @@
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TiledImageClassifierTest {
+
+    private static final int SIZE = 3;
+    private static final int WIDTH = 30;
+    private static final int HEIGHT = 45;
+    private static final int STRIP_HEIGHT = 8;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    @Test
+    public void classifiesStripsLikeWholeImage() throws IOException {
+        final Mat image = randomImage(new Random(1));
+        assertSameAsWholeImage(image, null);
+    }
+
+    @Test
+    public void classifiesStripsLikeWholeImageInsideFieldOfView() throws IOException {
+        final Mat image = randomImage(new Random(2));
+        final Mat mask = new Mat(HEIGHT, WIDTH, CvType.CV_8UC3, new Scalar(0, 0, 0));
+        Imgproc.circle(mask, new Point(WIDTH / 2, HEIGHT / 2), WIDTH / 2, new Scalar(255, 255, 255), -1);
+        assertSameAsWholeImage(image, mask);
+    }
+
+    private void assertSameAsWholeImage(Mat image, Mat mask) throws IOException {
+        final File imageFile = new File(folder.getRoot(), "image.png");
+        Imgcodecs.imwrite(imageFile.getPath(), image);
+        File maskFile = null;
+        if (mask != null) {
+            maskFile = new File(folder.getRoot(), "mask.png");
+            Imgcodecs.imwrite(maskFile.getPath(), mask);
+        }
+
+        final ThresholdClassifier classifier = new ThresholdClassifier();
+        final ClassificationEngine engine = new ClassificationEngine(classifier, VariantModel.HU_MOMENTS, SIZE, true,
+                                                                     16, 2);
+        try {
+            final File resultFile = new File(folder.getRoot(), "result.pgm");
+            new TiledImageClassifier(engine, SIZE, STRIP_HEIGHT).classify(imageFile, maskFile, resultFile);
+            // Pixels of the halos are only in the surroundings of others, every pixel is classified once
+            assertEquals(pixelsInside(mask), classifier.classified.get());
+
+            final long[] histogram = new long[256];
+            ImageUtils.addGreenHistogram(image, histogram);
+            ImageUtils.applyToGreen(image, ImageUtils.equalizationTable(histogram));
+            final Mat whole = engine.classify(image, mask);
+            final byte[] expected = new byte[WIDTH * HEIGHT];
+            final byte[] pixels = new byte[WIDTH * HEIGHT * whole.channels()];
+            whole.get(0, 0, pixels);
+            for (int pixel = 0; pixel < expected.length; pixel++) {
+                expected[pixel] = pixels[pixel * whole.channels()];
+            }
+            assertArrayEquals(expected, readPgm(resultFile));
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    private static int pixelsInside(Mat mask) {
+        if (mask == null) {
+            return WIDTH * HEIGHT;
+        }
+        final byte[] pixels = new byte[WIDTH * HEIGHT * mask.channels()];
+        mask.get(0, 0, pixels);
+        int inside = 0;
+        for (int pixel = 0; pixel < WIDTH * HEIGHT; pixel++) {
+            if (pixels[pixel * mask.channels()] != 0) {
+                inside++;
+            }
+        }
+        return inside;
+    }
+
+    private static byte[] readPgm(File file) throws IOException {
+        final byte[] content = Files.readAllBytes(file.toPath());
+        final byte[] header = String.format("P5%n%d %d%n255%n", WIDTH, HEIGHT).getBytes(StandardCharsets.US_ASCII);
+        assertArrayEquals(header, Arrays.copyOf(content, header.length));
+        return Arrays.copyOfRange(content, header.length, content.length);
+    }
+
+    /**
+     * Draws dark lines on a noisy bright background, so that decisions depend on the surroundings of pixels.
+     */
+    private static Mat randomImage(Random random) {
+        final byte[] pixels = new byte[WIDTH * HEIGHT * 3];
+        for (int pixel = 0; pixel < WIDTH * HEIGHT; pixel++) {
+            final int value = 150 + random.nextInt(60);
+            for (int channel = 0; channel < 3; channel++) {
+                pixels[pixel * 3 + channel] = (byte) (value - 40 * channel);
+            }
+        }
+        final Mat image = new Mat(HEIGHT, WIDTH, CvType.CV_8UC3);
+        image.put(0, 0, pixels);
+        for (int line = 0; line < 4; line++) {
+            Imgproc.line(image, new Point(random.nextInt(WIDTH), 0), new Point(random.nextInt(WIDTH), HEIGHT - 1),
+                         new Scalar(30, 40, 20), 2);
+        }
+        return image;
+    }
+
+    /**
+     * Decides by the first Hu moment of the surroundings and counts how many pixels it was asked about.
+     */
+    private static class ThresholdClassifier extends AbstractClassifier {
+        private final AtomicInteger classified = new AtomicInteger();
+
+        private ThresholdClassifier() {
+            super(new NormalizedTrainingSet(new double[0], new boolean[0], new double[HuMoments.NUMBER_OF_INVARIANTS],
+                                            new double[HuMoments.NUMBER_OF_INVARIANTS]));
+        }
+
+        @Override
+        boolean isVessel(Mat image, int x, int y) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        boolean isVessel(double[] vector) {
+            classified.incrementAndGet();
+            return vector[0] > 1.4e-3;
+        }
+    }
+}